@@ -0,0 +1,117 @@
+package pune;
+
+import java.util.List;
+
+/**
+ * A route engine that precomputes the distance, fare and next station for
+ * every pair of stations. Building it costs one full Dijkstra search per
+ * station, after which every query is a handful of array reads. This suits
+ * small networks such as Pune's, where n * n table entries fit easily in memory.
+ */
+final class AllPairsRouteEngine implements RouteEngine {
+
+    // Largest network the tables are built for; three n*n int tables of this size take about 48 MB.
+    static final int MAX_STATIONS = 2048;
+
+    // Marks the destination itself, which has no first hop.
+    private static final int NO_LINE = -2;
+
+    private final MetroGraph metro;
+    private final int n;
+    // All tables are n*n and indexed by [from * n + to].
+    private final int[] distance;
+    private final int[] fare;
+    // nextHop[from * n + to] is the station after "from" on the route to "to" (-1 if none).
+    private final int[] nextHop;
+
+    /**
+     * Builds the tables for the current state of a graph. Changes made to the
+     * graph afterwards are not seen; build a new engine instead.
+     *
+     * @param metro The metro graph to precompute.
+     */
+    AllPairsRouteEngine(MetroGraph metro) {
+        CsrGraph graph = metro.graph();
+        this.metro = metro;
+        this.n = graph.nodeCount();
+        if (n > MAX_STATIONS) {
+            throw new IllegalArgumentException("Network has " + n + " stations; all-pairs tables support at most " + MAX_STATIONS);
+        }
+        this.distance = new int[n * n];
+        this.fare = new int[n * n];
+        this.nextHop = new int[n * n];
+
+        int[] dist = new int[n];
+        int[] prev = new int[n];
+        int[] order = new int[n];
+        int[] fareToRoot = new int[n];
+        // For the ride that starts with a station's first hop: its line, the station
+        // where it leaves that line, and the fare from there to the destination.
+        int[] rideLine = new int[n];
+        int[] rideEnd = new int[n];
+        int[] fareAfterRide = new int[n];
+        IndexedMinHeap heap = new IndexedMinHeap(n);
+
+        // One search per destination. The search tree rooted at "to" gives, for
+        // every other station, its next hop towards "to". Taking all next hops of
+        // a column from the same tree keeps every reconstructed route consistent
+        // with the distance and fare stored for it.
+        for (int to = 0; to < n; to++) {
+            int settled = metro.searchFrom(to, dist, prev, order, heap);
+            for (int v = 0; v < n; v++) {
+                distance[v * n + to] = dist[v];
+                nextHop[v * n + to] = prev[v];
+                fare[v * n + to] = 0;
+            }
+            // Stations are settled parent-first, so each fare builds on its parent's.
+            // A hop on the same line as the parent's first hop extends that ride
+            // (one fare from the line's matrix); any other hop starts a new ride.
+            fareToRoot[to] = 0;
+            rideLine[to] = NO_LINE;
+            for (int k = 1; k < settled; k++) {
+                int v = order[k];
+                int parent = prev[v];
+                int arc = graph.findArc(v, parent);
+                int line = graph.lines[arc];
+                if (line == -1) {
+                    fareToRoot[v] = fareToRoot[parent] + graph.fares[arc];
+                } else {
+                    if (line == rideLine[parent]) {
+                        rideEnd[v] = rideEnd[parent];
+                        fareAfterRide[v] = fareAfterRide[parent];
+                    } else {
+                        rideEnd[v] = parent;
+                        fareAfterRide[v] = fareToRoot[parent];
+                    }
+                    fareToRoot[v] = fareAfterRide[v] + metro.segmentFare(line, v, rideEnd[v]);
+                }
+                rideLine[v] = line;
+                fare[v * n + to] = fareToRoot[v];
+            }
+        }
+    }
+
+    @Override
+    public int findRoute(String start, String end, List<String> path) {
+        path.clear();
+        int from = metro.indexOf(start);
+        int to = metro.indexOf(end);
+        if (from == -1 || to == -1 || distance[from * n + to] == Integer.MAX_VALUE) {
+            // Same result as MetroGraph.dijkstra for an unreachable destination.
+            path.add(end);
+            return Integer.MAX_VALUE;
+        }
+        // Follow the next-hop table until the destination is reached.
+        for (int step = from; step != -1; step = nextHop[step * n + to]) {
+            path.add(metro.nameOf(step));
+        }
+        return distance[from * n + to];
+    }
+
+    @Override
+    public int totalFare(String start, String end, List<String> path) {
+        int from = metro.indexOf(start);
+        int to = metro.indexOf(end);
+        return from == -1 || to == -1 ? 0 : fare[from * n + to];
+    }
+}
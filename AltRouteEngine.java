@@ -0,0 +1,329 @@
+package pune;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A route engine using A* search with landmark lower bounds (ALT: A*,
+ * Landmarks, Triangle inequality). A few landmark stations are picked when the
+ * engine is built, and the distance from every landmark to every station is
+ * stored. For any station v and destination t the triangle inequality gives
+ * |d(L, t) - d(L, v)| <= d(v, t), so the largest of these differences is a
+ * lower bound on the remaining distance. A* uses it to head towards the
+ * destination and settles far fewer stations than Dijkstra on long routes.
+ */
+final class AltRouteEngine implements RouteEngine {
+
+    // Number of landmarks used when the caller doesn't choose one.
+    static final int DEFAULT_LANDMARKS = 8;
+    // Marks a landmark table file, followed by the format version.
+    private static final int FILE_MAGIC = 0x414C5431; // "ALT1"
+    // Version 2 replaced the hash code fingerprint with SHA-256 and added the checksum.
+    // Version 3 no longer picks unconnected stations as landmarks, so older tables are rebuilt.
+    private static final int FILE_VERSION = 3;
+
+    private final MetroGraph metro;
+    // The chosen landmark stations.
+    private final int[] landmarks;
+    // landmarkDist[i][v] is the distance from landmarks[i] to station v (Integer.MAX_VALUE if unreachable).
+    private final int[][] landmarkDist;
+
+    private AltRouteEngine(MetroGraph metro, int[] landmarks, int[][] landmarkDist) {
+        this.metro = metro;
+        this.landmarks = landmarks;
+        this.landmarkDist = landmarkDist;
+    }
+
+    /**
+     * Builds the engine, choosing landmarks with the "farthest" rule: each new
+     * landmark is the station farthest from all landmarks chosen so far, which
+     * spreads them around the edge of the network.
+     *
+     * <p>Only stations the chosen landmarks can reach are candidates. A
+     * station with no arcs (one removed from its line keeps its id, see
+     * StationRegistry) or in a part of the network the landmarks don't reach
+     * would get a distance table that bounds nothing, and A* would gain
+     * nothing from it. Fewer landmarks than asked for are chosen if the
+     * reachable stations run out.
+     *
+     * @param metro The graph to route on. It must not change while the engine is used.
+     * @param count The number of landmarks to choose.
+     * @return The engine.
+     */
+    static AltRouteEngine build(MetroGraph metro, int count) {
+        CsrGraph graph = metro.graph();
+        int n = graph.nodeCount();
+        int[] landmarks = new int[Math.min(count, n)];
+        int[][] landmarkDist = new int[landmarks.length][];
+        boolean[] chosen = new boolean[n];
+
+        // distToChosen[v] is the distance from v to the nearest landmark chosen so far.
+        int[] distToChosen = new int[n];
+        Arrays.fill(distToChosen, Integer.MAX_VALUE);
+        int[] prev = new int[n];
+        int[] order = new int[n];
+        IndexedMinHeap heap = new IndexedMinHeap(n);
+
+        // The first landmark is the station farthest from the first station with arcs.
+        int next = -1;
+        for (int v = 0; v < n && next == -1; v++) {
+            if (graph.offsets[v + 1] > graph.offsets[v]) {
+                int[] dist = new int[n];
+                metro.searchFrom(v, dist, prev, order, heap);
+                next = farthest(graph, dist, chosen);
+            }
+        }
+        int found = 0;
+        while (found < landmarks.length && next != -1) {
+            landmarks[found] = next;
+            chosen[next] = true;
+            landmarkDist[found] = new int[n];
+            metro.searchFrom(next, landmarkDist[found], prev, order, heap);
+            for (int v = 0; v < n; v++) {
+                distToChosen[v] = Math.min(distToChosen[v], landmarkDist[found][v]);
+            }
+            found++;
+            next = farthest(graph, distToChosen, chosen);
+        }
+        return new AltRouteEngine(metro, Arrays.copyOf(landmarks, found), Arrays.copyOf(landmarkDist, found));
+    }
+
+    /**
+     * Returns the station with the largest distance among those that have
+     * arcs, are reachable (distance below Integer.MAX_VALUE) and aren't a
+     * landmark yet, or -1 if there is none.
+     */
+    private static int farthest(CsrGraph graph, int[] dist, boolean[] chosen) {
+        int best = -1;
+        for (int v = 0; v < dist.length; v++) {
+            if (dist[v] != Integer.MAX_VALUE && !chosen[v] && graph.offsets[v + 1] > graph.offsets[v]
+                    && (best == -1 || dist[v] > dist[best])) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Loads the landmark tables from a file if it was written for the same
+     * graph; otherwise builds them and writes the file, so the next start can
+     * skip the preprocessing.
+     *
+     * @param metro The graph to route on.
+     * @param file The landmark table file.
+     * @return The engine.
+     */
+    static AltRouteEngine loadOrBuild(MetroGraph metro, Path file) {
+        if (Files.exists(file)) {
+            try {
+                AltRouteEngine engine = load(metro, file);
+                if (engine != null) {
+                    return engine;
+                }
+            } catch (IOException e) {
+                System.out.println("Error reading landmark tables: " + e.getMessage());
+            }
+        }
+        AltRouteEngine engine = build(metro, DEFAULT_LANDMARKS);
+        try {
+            engine.save(file);
+        } catch (IOException e) {
+            System.out.println("Error saving landmark tables: " + e.getMessage());
+        }
+        return engine;
+    }
+
+    /**
+     * Writes the landmark tables together with a fingerprint of the graph they
+     * belong to and a checksum of the whole file. The file is replaced in one
+     * step (see AtomicFile), so a crash can't leave it half written.
+     *
+     * @param file The file to write.
+     * @throws IOException if the file can't be written.
+     */
+    void save(Path file) throws IOException {
+        int n = metro.graph().nodeCount();
+        byte[] fingerprint = fingerprint(metro);
+        AtomicFile.write(file, stream -> {
+            CheckedOutputStream checked = new CheckedOutputStream(stream, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(n);
+            out.write(fingerprint);
+            out.writeInt(landmarks.length);
+            for (int i = 0; i < landmarks.length; i++) {
+                out.writeInt(landmarks[i]);
+                for (int v = 0; v < n; v++) {
+                    out.writeInt(landmarkDist[i][v]);
+                }
+            }
+            out.flush();
+            // Written straight to the stream, so it isn't part of its own checksum
+            new DataOutputStream(stream).writeInt((int) checked.getChecksum().getValue());
+        });
+    }
+
+    /**
+     * Reads landmark tables written by save. Everything read is checked
+     * before it is used: the header against the graph, the landmark count and
+     * ids against the number of stations, and the whole file against its
+     * checksum.
+     *
+     * @return The engine, or null if the file belongs to a different graph.
+     * @throws IOException if the file can't be read or is damaged.
+     */
+    private static AltRouteEngine load(MetroGraph metro, Path file) throws IOException {
+        int n = metro.graph().nodeCount();
+        byte[] expected = fingerprint(metro);
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(file))) {
+            CheckedInputStream checked = new CheckedInputStream(stream, new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION || in.readInt() != n) {
+                return null;
+            }
+            byte[] fingerprint = new byte[expected.length];
+            in.readFully(fingerprint);
+            if (!Arrays.equals(fingerprint, expected)) {
+                return null;
+            }
+            int count = in.readInt();
+            if (count < 0 || count > n) {
+                throw new IOException(file + ": invalid landmark count " + count);
+            }
+            int[] landmarks = new int[count];
+            int[][] landmarkDist = new int[count][n];
+            for (int i = 0; i < count; i++) {
+                landmarks[i] = in.readInt();
+                if (landmarks[i] < 0 || landmarks[i] >= n) {
+                    throw new IOException(file + ": invalid landmark station " + landmarks[i]);
+                }
+                for (int v = 0; v < n; v++) {
+                    landmarkDist[i][v] = in.readInt();
+                    if (landmarkDist[i][v] < 0) {
+                        throw new IOException(file + ": invalid landmark distance " + landmarkDist[i][v]);
+                    }
+                }
+            }
+            int checksum = (int) checked.getChecksum().getValue();
+            if (new DataInputStream(stream).readInt() != checksum || stream.read() != -1) {
+                throw new IOException(file + " is damaged (checksum mismatch)");
+            }
+            return new AltRouteEngine(metro, landmarks, landmarkDist);
+        }
+    }
+
+    /**
+     * A SHA-256 digest of the station names and arcs the landmark distances
+     * depend on, so tables are only reused for exactly the same graph.
+     */
+    private static byte[] fingerprint(MetroGraph metro) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide SHA-256
+            throw new IllegalStateException(e);
+        }
+        CsrGraph graph = metro.graph();
+        for (int v = 0; v < graph.nodeCount(); v++) {
+            byte[] name = metro.nameOf(v).getBytes(StandardCharsets.UTF_8);
+            digest.update(ByteBuffer.allocate(4).putInt(name.length).array());
+            digest.update(name);
+        }
+        for (int[] array : new int[][] {graph.offsets, graph.targets, graph.weights}) {
+            ByteBuffer bytes = ByteBuffer.allocate(4 + 4 * array.length);
+            bytes.putInt(array.length);
+            for (int value : array) {
+                bytes.putInt(value);
+            }
+            digest.update(bytes.array());
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @return The lower bound on the distance from station v to the destination.
+     */
+    private int lowerBound(int v, int target) {
+        int bound = 0;
+        for (int[] dist : landmarkDist) {
+            // A landmark that can't reach both stations says nothing about them.
+            if (dist[v] != Integer.MAX_VALUE && dist[target] != Integer.MAX_VALUE) {
+                bound = Math.max(bound, Math.abs(dist[target] - dist[v]));
+            }
+        }
+        return bound;
+    }
+
+    @Override
+    public int findRoute(String start, String end, List<String> path) {
+        return findRoute(start, end, path, new QueryStats());
+    }
+
+    @Override
+    public int findRoute(String start, String end, List<String> path, QueryStats stats) {
+        long began = System.nanoTime();
+        stats.reset();
+        stats.algorithm = "alt";
+        path.clear();
+        int source = metro.indexOf(start);
+        int target = metro.indexOf(end);
+        if (source == -1 || target == -1) {
+            path.add(end);
+            return Integer.MAX_VALUE;
+        }
+
+        CsrGraph graph = metro.graph();
+        int n = graph.nodeCount();
+        int[] dist = new int[n];
+        int[] prev = new int[n];
+        Arrays.fill(dist, Integer.MAX_VALUE);
+        Arrays.fill(prev, -1);
+
+        // A*: the queue key is the distance so far plus the lower bound on the
+        // distance still to go. The landmark bounds are consistent, so every
+        // station is settled at most once, just like in Dijkstra.
+        IndexedMinHeap queue = new IndexedMinHeap(n);
+        dist[source] = 0;
+        queue.insertOrDecrease(source, lowerBound(source, target));
+        while (!queue.isEmpty()) {
+            int current = queue.poll();
+            stats.settledNodes++;
+            if (current == target) {
+                break;
+            }
+            for (int arc = graph.offsets[current]; arc < graph.offsets[current + 1]; arc++) {
+                stats.relaxedArcs++;
+                int neighbor = graph.targets[arc];
+                int newDist = dist[current] + graph.weights[arc];
+                if (newDist < dist[neighbor]) {
+                    dist[neighbor] = newDist;
+                    prev[neighbor] = current;
+                    queue.insertOrDecrease(neighbor, newDist + lowerBound(neighbor, target));
+                }
+            }
+        }
+
+        for (int step = target; step != -1; step = prev[step]) {
+            path.add(metro.nameOf(step));
+        }
+        Collections.reverse(path);
+        stats.elapsedNanos = System.nanoTime() - began;
+        return dist[target];
+    }
+
+    @Override
+    public int totalFare(String start, String end, List<String> path) {
+        return metro.totalFare(start, end, path);
+    }
+}
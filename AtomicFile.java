@@ -0,0 +1,78 @@
+package pune;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replaces files so that a crash can't leave them half written. The new
+ * contents go to a temporary file next to the old one, which is forced to
+ * disk and then renamed over the old file in one step. After a crash the
+ * file is either completely old or completely new; at worst a stray
+ * temporary file is left behind, and the next write replaces it.
+ */
+final class AtomicFile {
+
+    /**
+     * Produces the contents of a file.
+     */
+    interface Contents {
+        /**
+         * Writes the contents. The stream must not be closed.
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private AtomicFile() {
+    }
+
+    /**
+     * Writes a file through a temporary file, fsync and an atomic rename.
+     *
+     * @param file The file to create or replace.
+     * @param contents Writes the new contents.
+     * @throws IOException if the file can't be written; the old file is then unchanged.
+     */
+    static void write(Path file, Contents contents) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            contents.writeTo(out);
+            out.flush();
+            // The data must be on disk before the rename makes it the real file.
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Some file systems can't do this; an ordinary replace is the best they offer.
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(file);
+    }
+
+    /**
+     * Forces the directory entry of a file to disk, so a newly created or
+     * renamed file is still there after a crash. Not every system can open a
+     * directory for this (Windows can't); there it is skipped.
+     *
+     * @param file A file in the directory.
+     */
+    static void syncDirectory(Path file) {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported here; the rename itself has still happened.
+        }
+    }
+}
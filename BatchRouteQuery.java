@@ -0,0 +1,237 @@
+package pune;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Answers many origin/destination queries at once, for planning reports.
+ * Pairs are grouped by origin, and each origin gets a single one-to-many
+ * Dijkstra search that stops once all of its destinations are settled. The
+ * origins are spread over a ForkJoinPool. Results are kept in plain int
+ * arrays (distance and fare per pair); no station lists are built.
+ */
+final class BatchRouteQuery {
+
+    // Below this many origins a task does its work instead of splitting further.
+    private static final int ORIGINS_PER_TASK = 16;
+
+    /**
+     * One origin/destination pair.
+     */
+    static final class Pair {
+        final String origin;
+        final String destination;
+
+        Pair(String origin, String destination) {
+            this.origin = origin;
+            this.destination = destination;
+        }
+    }
+
+    /**
+     * The answers to a batch, in the same order as the pairs.
+     */
+    static final class Result {
+        private final int[] distances;
+        private final int[] fares;
+
+        private Result(int size) {
+            distances = new int[size];
+            fares = new int[size];
+            Arrays.fill(distances, Integer.MAX_VALUE);
+        }
+
+        /**
+         * @return The number of pairs.
+         */
+        int size() {
+            return distances.length;
+        }
+
+        /**
+         * @return The shortest distance of pair i, or Integer.MAX_VALUE if there is no route.
+         */
+        int distance(int i) {
+            return distances[i];
+        }
+
+        /**
+         * @return The fare of the shortest route of pair i (0 if there is no route).
+         */
+        int fare(int i) {
+            return fares[i];
+        }
+    }
+
+    private BatchRouteQuery() {
+    }
+
+    /**
+     * Answers every pair on the given pool.
+     *
+     * @param metro The graph to route on. It must not change during the call.
+     * @param pairs The origin/destination pairs.
+     * @param pool The pool running the searches.
+     * @return The distances and fares, indexed like {@code pairs}.
+     */
+    static Result run(MetroGraph metro, List<Pair> pairs, ForkJoinPool pool) {
+        int n = metro.graph().nodeCount();
+        Result result = new Result(pairs.size());
+
+        // Translate names to ids once; pairs with an unknown station keep the "no route" answer.
+        int[] origin = new int[pairs.size()];
+        int[] destination = new int[pairs.size()];
+        for (int i = 0; i < pairs.size(); i++) {
+            origin[i] = metro.indexOf(pairs.get(i).origin);
+            destination[i] = metro.indexOf(pairs.get(i).destination);
+        }
+
+        // Group the pairs by origin with a counting sort: groupStart[o]..groupStart[o + 1]
+        // in byOrigin are the pairs leaving origin o.
+        int[] groupStart = new int[n + 1];
+        for (int i = 0; i < origin.length; i++) {
+            if (origin[i] != -1 && destination[i] != -1) {
+                groupStart[origin[i] + 1]++;
+            }
+        }
+        for (int v = 0; v < n; v++) {
+            groupStart[v + 1] += groupStart[v];
+        }
+        int[] byOrigin = new int[groupStart[n]];
+        int[] fill = Arrays.copyOf(groupStart, n);
+        for (int i = 0; i < origin.length; i++) {
+            if (origin[i] != -1 && destination[i] != -1) {
+                byOrigin[fill[origin[i]]++] = i;
+            }
+        }
+
+        // The origins that have at least one pair.
+        int[] origins = new int[n];
+        int originCount = 0;
+        for (int v = 0; v < n; v++) {
+            if (groupStart[v + 1] > groupStart[v]) {
+                origins[originCount++] = v;
+            }
+        }
+
+        pool.invoke(new OriginTask(metro, origins, 0, originCount, groupStart, byOrigin, destination, result));
+        return result;
+    }
+
+    /**
+     * Answers the pairs of origins[from..to-1], splitting the range in two
+     * while it is large.
+     */
+    private static final class OriginTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final MetroGraph metro;
+        private final int[] origins;
+        private final int from;
+        private final int to;
+        private final int[] groupStart;
+        private final int[] byOrigin;
+        private final int[] destination;
+        private final Result result;
+
+        OriginTask(MetroGraph metro, int[] origins, int from, int to,
+                int[] groupStart, int[] byOrigin, int[] destination, Result result) {
+            this.metro = metro;
+            this.origins = origins;
+            this.from = from;
+            this.to = to;
+            this.groupStart = groupStart;
+            this.byOrigin = byOrigin;
+            this.destination = destination;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > ORIGINS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new OriginTask(metro, origins, from, middle, groupStart, byOrigin, destination, result),
+                        new OriginTask(metro, origins, middle, to, groupStart, byOrigin, destination, result));
+                return;
+            }
+
+            // Search state shared by all origins of this task.
+            CsrGraph graph = metro.graph();
+            int n = graph.nodeCount();
+            int[] dist = new int[n];
+            int[] prev = new int[n];
+            int[] wanted = new int[n]; // wanted[v] == stamp marks v as a destination of the current origin
+            int[] route = new int[n];
+            Arrays.fill(dist, Integer.MAX_VALUE);
+            Arrays.fill(prev, -1);
+            IndexedMinHeap heap = new IndexedMinHeap(n);
+            int[] reached = new int[n];
+
+            for (int k = from; k < to; k++) {
+                int source = origins[k];
+                int stamp = k + 1;
+                int left = 0;
+                for (int p = groupStart[source]; p < groupStart[source + 1]; p++) {
+                    int target = destination[byOrigin[p]];
+                    if (wanted[target] != stamp) {
+                        wanted[target] = stamp;
+                        left++;
+                    }
+                }
+
+                // One-to-many Dijkstra: stop as soon as every destination is settled.
+                int reachedCount = 0;
+                dist[source] = 0;
+                reached[reachedCount++] = source;
+                heap.insertOrDecrease(source, 0);
+                while (!heap.isEmpty() && left > 0) {
+                    int current = heap.poll();
+                    if (wanted[current] == stamp) {
+                        left--;
+                    }
+                    for (int arc = graph.offsets[current]; arc < graph.offsets[current + 1]; arc++) {
+                        int neighbor = graph.targets[arc];
+                        int newDist = dist[current] + graph.weights[arc];
+                        if (newDist < dist[neighbor]) {
+                            if (dist[neighbor] == Integer.MAX_VALUE) {
+                                reached[reachedCount++] = neighbor;
+                            }
+                            dist[neighbor] = newDist;
+                            prev[neighbor] = current;
+                            heap.insertOrDecrease(neighbor, newDist);
+                        }
+                    }
+                }
+                heap.clear();
+
+                // Record the answers; the fare walks the route back along prev.
+                for (int p = groupStart[source]; p < groupStart[source + 1]; p++) {
+                    int pair = byOrigin[p];
+                    int target = destination[pair];
+                    if (dist[target] == Integer.MAX_VALUE) {
+                        continue;
+                    }
+                    int length = 0;
+                    for (int step = target; step != -1; step = prev[step]) {
+                        route[length++] = step;
+                    }
+                    // Put the route in travel order before pricing it.
+                    for (int i = 0, j = length - 1; i < j; i++, j--) {
+                        int swap = route[i];
+                        route[i] = route[j];
+                        route[j] = swap;
+                    }
+                    result.distances[pair] = dist[target];
+                    result.fares[pair] = metro.routeFare(route, length);
+                }
+
+                // Reset only what this origin touched.
+                for (int i = 0; i < reachedCount; i++) {
+                    dist[reached[i]] = Integer.MAX_VALUE;
+                    prev[reached[i]] = -1;
+                }
+            }
+        }
+    }
+}
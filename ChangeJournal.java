@@ -0,0 +1,514 @@
+package pune;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of admin changes. Saving an edit appends one small
+ * record instead of rewriting the whole network, so a fare change costs a
+ * few bytes of I/O however big the network is.
+ *
+ * <p>Every record is:
+ * <pre>
+ *   long sequence, int length, length bytes of NetworkChange, int CRC32
+ * </pre>
+ * The checksum covers the sequence, the length and the change. Sequence
+ * numbers go up by one per change and never restart, and the network
+ * snapshot file remembers the number of the last change it includes (see
+ * NetworkFile). On start-up, the changes after that number are replayed on
+ * top of the snapshot. A last record cut short by a crash, or failing its
+ * checksum, is dropped. A journal that can't be replayed completely for any
+ * other reason (a gap in the sequence numbers, damage before the last
+ * record) is never cut short: it is kept under another name, and a new
+ * journal continues from the last change applied.
+ *
+ * <p>Once the journal grows past a size limit, it is compacted in the
+ * background: the whole network is written out as a new snapshot, and the
+ * records that snapshot includes are removed from the journal.
+ *
+ * <p>A record is forced to disk (fsync) before append returns, so a saved
+ * change survives a crash. In group-commit mode append returns at once
+ * instead, and every change made within a short window of the first one is
+ * written and forced together, a little later, with one fsync. A crash
+ * within that window can lose those changes, but a burst of edits (such as
+ * a script feeding the admin menu) costs one disk flush instead of one each.
+ */
+final class ChangeJournal implements Closeable {
+
+    /**
+     * Writes a full copy of the network, for compaction.
+     */
+    interface SnapshotWriter {
+        /**
+         * @param snapshot The network to write.
+         * @param sequence The number of the last change the network includes.
+         */
+        void write(NetworkSnapshot snapshot, long sequence) throws IOException;
+    }
+
+    // Bytes of a record besides the change itself: sequence, length and checksum.
+    private static final int RECORD_OVERHEAD = 8 + 4 + 4;
+
+    private final Path file;
+    private final long sizeLimit;
+    private final SnapshotWriter writer;
+    // Compacts one journal at a time, off the admin's thread.
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Writes group-committed records when their window is over.
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // How long group commit waits for more changes; 0 forces every record at once.
+    private final long groupCommitMillis;
+    // Records waiting for the group-commit window to end, in order.
+    private final List<ByteBuffer> pending = new ArrayList<>();
+    // True while a background flush is queued for the records in pending.
+    private boolean flushScheduled;
+    // True if the last background flush failed; the next append then writes at once.
+    private boolean flushFailed;
+    // Open for appending once the first change is recorded.
+    private FileChannel channel;
+    private long size;
+    private long lastSequence;
+    private boolean compacting;
+
+    private ChangeJournal(Path file, long sizeLimit, long groupCommitMillis, SnapshotWriter writer, long size,
+            long lastSequence) {
+        this.file = file;
+        this.sizeLimit = sizeLimit;
+        this.groupCommitMillis = groupCommitMillis;
+        this.writer = writer;
+        this.size = size;
+        this.lastSequence = lastSequence;
+    }
+
+    /**
+     * Opens a journal and replays the changes that a snapshot doesn't include yet.
+     *
+     * @param file The journal file; it is created when the first change is recorded.
+     * @param snapshot The network as loaded from the snapshot file.
+     * @param snapshotSequence The number of the last change the snapshot includes.
+     * @param sizeLimit The journal size, in bytes, above which it is compacted.
+     * @param groupCommitMillis The group-commit window in milliseconds, or 0
+     *                          to force every change to disk before append returns.
+     * @param writer Writes the full network when the journal is compacted.
+     * @return The journal, and the network with the changes replayed.
+     * @throws IOException if the journal can't be read.
+     */
+    static Replayed open(Path file, NetworkSnapshot snapshot, long snapshotSequence, long sizeLimit,
+            long groupCommitMillis, SnapshotWriter writer) throws IOException {
+        long lastSequence = snapshotSequence;
+        long validSize = 0;
+        // The changes replayed, in case they have to be moved to a new journal.
+        List<Record> applied = new ArrayList<>();
+        // Set if the journal holds changes that can't be applied to this snapshot.
+        String unusable = null;
+        if (Files.exists(file)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                Record record;
+                while ((record = Record.read(in)) != null) {
+                    if (record.sequence > lastSequence) {
+                        if (record.sequence != lastSequence + 1) {
+                            // For example an older snapshot restored over a compacted journal
+                            unusable = "it skips from change " + lastSequence + " to " + record.sequence;
+                            break;
+                        }
+                        try {
+                            snapshot = record.change.applyTo(snapshot);
+                        } catch (IllegalArgumentException e) {
+                            // The same checks passed when the change was made, so this only
+                            // happens if the data file was replaced; skip the change.
+                            System.out.println("Could not replay change " + record.sequence + " ("
+                                    + record.change + "): " + e.getMessage());
+                        }
+                        lastSequence = record.sequence;
+                        applied.add(record);
+                    }
+                    validSize += record.size();
+                }
+            } catch (UnreadableRecordException e) {
+                unusable = e.getMessage();
+            }
+            long fileSize = Files.size(file);
+            if (unusable == null && validSize < fileSize && !isTail(file, validSize, fileSize)) {
+                unusable = "it is damaged before its last record";
+            }
+            if (unusable != null) {
+                // The changes after this point were saved, so they must not be
+                // deleted: keep the whole file, and continue in a new journal
+                // holding only the changes that were applied.
+                Path old = setAside(file);
+                System.out.println("The change journal can't be used completely (" + unusable + "); it was kept as "
+                        + old + " and later changes were not applied.");
+                writeRecords(file, applied);
+                validSize = 0;
+                for (Record record : applied) {
+                    validSize += record.size();
+                }
+            } else if (validSize < fileSize) {
+                // Drop the last record, cut short by a crash or failing its checksum,
+                // so new records follow the last good one.
+                System.out.println("Change journal ends with a damaged record; it was dropped.");
+                try (FileChannel truncate = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                    truncate.truncate(validSize);
+                }
+            }
+        }
+        return new Replayed(new ChangeJournal(file, sizeLimit, groupCommitMillis, writer, validSize, lastSequence),
+                snapshot, applied.size());
+    }
+
+    /**
+     * Checks whether the damaged record at an offset is the last one in the
+     * file, which is what a crash while appending leaves behind. A record
+     * whose length runs past the end of the file counts as the last one.
+     */
+    private static boolean isTail(Path file, long offset, long fileSize) throws IOException {
+        if (fileSize - offset < 12) {
+            return true;
+        }
+        ByteBuffer header = ByteBuffer.allocate(12);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header, offset + header.position()) > 0) {
+                // Read the whole header
+            }
+        }
+        int length = header.getInt(8);
+        return length < 0 || offset + RECORD_OVERHEAD + length >= fileSize;
+    }
+
+    /**
+     * Renames a journal file so it is kept but no longer used. An earlier
+     * file set aside is not replaced; the new one gets a number instead.
+     *
+     * @param file The journal file.
+     * @return The new name of the file.
+     * @throws IOException if the file can't be renamed.
+     */
+    static Path setAside(Path file) throws IOException {
+        Path old = file.resolveSibling(file.getFileName() + ".old");
+        for (int n = 1; Files.exists(old); n++) {
+            old = file.resolveSibling(file.getFileName() + ".old." + n);
+        }
+        Files.move(file, old);
+        AtomicFile.syncDirectory(file);
+        return old;
+    }
+
+    /**
+     * Replaces a journal file with the given records, in one step.
+     */
+    private static void writeRecords(Path file, List<Record> records) throws IOException {
+        AtomicFile.write(file, out -> {
+            for (Record record : records) {
+                ByteBuffer bytes = Record.encode(record.sequence, record.change);
+                out.write(bytes.array(), 0, bytes.limit());
+            }
+        });
+    }
+
+    /**
+     * The result of open: the journal and the network with its changes applied.
+     */
+    static final class Replayed {
+        final ChangeJournal journal;
+        final NetworkSnapshot network;
+        final int changes;
+
+        private Replayed(ChangeJournal journal, NetworkSnapshot network, int changes) {
+            this.journal = journal;
+            this.network = network;
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * Records a change that has just been made. Without group commit the
+     * change is on disk when this returns; with it, it is written at the end
+     * of the current window. If writing the last window failed, this change
+     * and the ones left over are written at once, so a problem that lasts is
+     * reported here. If the journal has grown past its size limit, a
+     * compaction is started in the background.
+     *
+     * @param change The change.
+     * @param result The network after the change; written out if the journal is compacted.
+     * @return The sequence number of the change.
+     * @throws IOException if the change, or one recorded before it, can't be written.
+     */
+    synchronized long append(NetworkChange change, NetworkSnapshot result) throws IOException {
+        long sequence = lastSequence + 1;
+        ByteBuffer record = Record.encode(sequence, change);
+        size += record.remaining();
+        pending.add(record);
+        lastSequence = sequence;
+        try {
+            if (groupCommitMillis <= 0 || flushFailed) {
+                flushFailed = false;
+                flush();
+            }
+        } finally {
+            if (groupCommitMillis > 0 && !pending.isEmpty() && !flushScheduled) {
+                // Start a window: write these records and all that follow when it ends.
+                // Also done when a failed write left records behind, so they are tried again.
+                flushScheduled = true;
+                flusher.schedule(this::flushInBackground, groupCommitMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (size > sizeLimit && !compacting) {
+            compacting = true;
+            compactor.execute(() -> compact(result, sequence));
+        }
+        return sequence;
+    }
+
+    /**
+     * Writes the waiting records and forces them to disk with one fsync.
+     */
+    private synchronized void flush() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        boolean created = false;
+        if (channel == null) {
+            created = Files.notExists(file);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        channel.write(pending.toArray(new ByteBuffer[0]));
+        for (ByteBuffer record : pending) {
+            // A gathering write may stop early; finish each record in order.
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        }
+        pending.clear();
+        channel.force(false);
+        if (created) {
+            AtomicFile.syncDirectory(file);
+        }
+    }
+
+    private synchronized void flushInBackground() {
+        flushScheduled = false;
+        try {
+            flush();
+        } catch (IOException e) {
+            // The records stay in pending; the next append writes them or reports the error.
+            flushFailed = true;
+            System.out.println("Error saving changes to the journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The sequence number of the last change recorded or replayed.
+     */
+    synchronized long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return The size of the journal file in bytes.
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Compacts the journal now, waiting until it is done. Does nothing if the
+     * journal is empty.
+     *
+     * @param current The network including every change recorded so far.
+     */
+    void compactNow(NetworkSnapshot current) {
+        long sequence;
+        synchronized (this) {
+            if (size == 0) {
+                return;
+            }
+            sequence = lastSequence;
+            compacting = true;
+        }
+        try {
+            // On the compactor thread, so it can't overlap a background compaction.
+            compactor.submit(() -> compact(current, sequence)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.out.println("Error compacting change journal: " + e.getCause());
+        }
+    }
+
+    /**
+     * Writes a full snapshot including every change up to a sequence number,
+     * then removes those changes from the journal. Changes appended while the
+     * snapshot was being written stay in the journal.
+     */
+    private void compact(NetworkSnapshot snapshot, long sequence) {
+        try {
+            writer.write(snapshot, sequence);
+            dropUpTo(sequence);
+        } catch (IOException e) {
+            System.out.println("Error compacting change journal: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    private synchronized void dropUpTo(long sequence) throws IOException {
+        // Records still waiting for their window go in first, so none is lost.
+        flush();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        List<Record> kept = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            Record record;
+            while ((record = Record.read(in)) != null) {
+                if (record.sequence > sequence) {
+                    kept.add(record);
+                }
+            }
+        }
+        long keptSize = 0;
+        for (Record record : kept) {
+            keptSize += record.size();
+        }
+        // Replaced in one step, so a crash leaves either the old journal or the new one.
+        writeRecords(file, kept);
+        size = keptSize;
+    }
+
+    /**
+     * Writes any changes waiting for their group-commit window, waits for a
+     * running compaction to finish and closes the file. The last two happen
+     * even if the waiting changes can't be written.
+     */
+    @Override
+    public void close() throws IOException {
+        // A window still open is cut short: its changes are written now.
+        flusher.shutdown();
+        try {
+            flush();
+        } finally {
+            // Even if the last changes couldn't be written, let a running
+            // compaction finish instead of having it cut off when the program exits.
+            compactor.shutdown();
+            try {
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * One record of the journal.
+     */
+    private static final class Record {
+        final long sequence;
+        final NetworkChange change;
+        final int length;
+
+        private Record(long sequence, NetworkChange change, int length) {
+            this.sequence = sequence;
+            this.change = change;
+            this.length = length;
+        }
+
+        /**
+         * @return The bytes the record takes up in the file.
+         */
+        long size() {
+            return RECORD_OVERHEAD + length;
+        }
+
+        static ByteBuffer encode(long sequence, NetworkChange change) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            change.writeTo(new DataOutputStream(bytes));
+            byte[] body = bytes.toByteArray();
+            ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + body.length);
+            record.putLong(sequence).putInt(body.length).put(body);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, record.position());
+            record.putInt((int) crc.getValue());
+            return record.flip();
+        }
+
+        /**
+         * Reads the next record.
+         *
+         * @return The record, or null at the end of the journal or at a record
+         *         that is cut short or fails its checksum.
+         * @throws UnreadableRecordException if the record is intact but its change can't be read.
+         */
+        static Record read(DataInputStream in) throws IOException {
+            byte[] head = new byte[12];
+            if (in.readNBytes(head, 0, head.length) < head.length) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.wrap(head);
+            long sequence = header.getLong();
+            int length = header.getInt();
+            if (length < 0) {
+                return null;
+            }
+            byte[] body = in.readNBytes(length);
+            byte[] tail = in.readNBytes(4);
+            if (body.length < length || tail.length < 4) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(head);
+            crc.update(body);
+            if ((int) crc.getValue() != ByteBuffer.wrap(tail).getInt()) {
+                return null;
+            }
+            try {
+                NetworkChange change = NetworkChange.readFrom(new DataInputStream(new ByteArrayInputStream(body)));
+                return new Record(sequence, change, length);
+            } catch (IOException e) {
+                // The record is intact, so it was written by a different version of the
+                // program; it isn't damage and must not be dropped like a damaged record.
+                throw new UnreadableRecordException("change " + sequence + " can't be read: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Thrown for a record that is intact but holds a change this version of
+     * the program can't read.
+     */
+    private static final class UnreadableRecordException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        UnreadableRecordException(String message) {
+            super(message);
+        }
+    }
+}
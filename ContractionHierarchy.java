@@ -0,0 +1,528 @@
+package pune;
+
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * A route engine based on contraction hierarchies. Preprocessing removes
+ * ("contracts") the stations one by one, least important first. When a
+ * station is removed, a shortcut edge is added between two of its neighbours
+ * if the route through it was their only shortest connection; the shortcut
+ * remembers the station it skips. Each station gets a rank (the order in which
+ * it was contracted), and a query only has to follow edges towards stations of
+ * higher rank: one upward search from the start, one from the destination,
+ * meeting at the most important station of the route. Shortcuts are expanded
+ * again afterwards, so the route lists every station like dijkstra's does.
+ *
+ * <p>Contraction runs in rounds. In every round, all stations that are less
+ * important than each of their remaining neighbours are contracted together,
+ * and the witness searches deciding which shortcuts they need run in parallel
+ * across cores, as do the importance updates of their neighbours.
+ */
+final class ContractionHierarchy implements RouteEngine {
+
+    // Witness searches give up after settling this many stations. Giving up only
+    // means a shortcut is added that might not have been needed, never a wrong route.
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    // Smaller limit for the searches that only estimate a station's importance.
+    private static final int ESTIMATE_SETTLE_LIMIT = 50;
+
+    private final MetroGraph metro;
+    // rank[v] is the position of station v in the contraction order.
+    private final int[] rank;
+    // Upward graph in CSR form: for every station, its edges to stations of higher
+    // rank, sorted by target. middle[arc] is the station a shortcut skips, or -1.
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final int[] upWeights;
+    private final int[] upMiddle;
+
+    /**
+     * Runs the preprocessing for the current state of a graph.
+     *
+     * @param metro The graph to route on. It must not change while the engine is used.
+     */
+    ContractionHierarchy(MetroGraph metro) {
+        this.metro = metro;
+        CsrGraph graph = metro.graph();
+        int n = graph.nodeCount();
+        Overlay overlay = new Overlay(graph);
+        this.rank = new int[n];
+
+        // Importance of every station: shortcuts its contraction would add, minus
+        // the edges it removes, plus the neighbours already contracted (which
+        // spreads contraction evenly over the network).
+        boolean[] contracted = new boolean[n];
+        int[] deletedNeighbours = new int[n];
+        int[] priority = new int[n];
+        ThreadLocal<WitnessSearch> searches = ThreadLocal.withInitial(() -> new WitnessSearch(n));
+        IntStream.range(0, n).parallel().forEach(v ->
+                priority[v] = overlay.shortcutsFor(v, contracted, searches.get(), null) - overlay.degree[v]);
+
+        // upEdges[v] keeps v's edges at the moment it is contracted; all of them
+        // lead to stations contracted later, so they form the upward graph.
+        int[][] upEdges = new int[n][];
+        int[] remaining = IntStream.range(0, n).toArray();
+        int remainingCount = n;
+        int nextRank = 0;
+        while (remainingCount > 0) {
+            // Pick every station that is less important than all of its remaining neighbours.
+            int[] round = independentSet(overlay, remaining, remainingCount, priority);
+            for (int v : round) {
+                contracted[v] = true;
+            }
+
+            // Find the shortcuts of the whole round in parallel. Witness searches avoid
+            // every station of the round, so they only use stations that stay.
+            int[][] shortcuts = new int[round.length][];
+            IntStream.range(0, round.length).parallel().forEach(i -> {
+                IntList found = new IntList();
+                overlay.shortcutsFor(round[i], contracted, searches.get(), found);
+                shortcuts[i] = found.toArray();
+            });
+
+            // Apply the round: remember upward edges, unlink the stations and add shortcuts.
+            Set<Integer> touched = new HashSet<>();
+            for (int i = 0; i < round.length; i++) {
+                int v = round[i];
+                rank[v] = nextRank++;
+                upEdges[v] = overlay.edgesOf(v);
+                for (int k = 0; k < overlay.degree[v]; k++) {
+                    int neighbour = overlay.neighbours[v][k];
+                    overlay.remove(neighbour, v);
+                    deletedNeighbours[neighbour]++;
+                    touched.add(neighbour);
+                }
+                int[] found = shortcuts[i];
+                for (int k = 0; k < found.length; k += 3) {
+                    overlay.addOrImprove(found[k], found[k + 1], found[k + 2], v);
+                }
+            }
+
+            // Drop the contracted stations from the remaining list.
+            int kept = 0;
+            for (int k = 0; k < remainingCount; k++) {
+                if (!contracted[remaining[k]]) {
+                    remaining[kept++] = remaining[k];
+                }
+            }
+            remainingCount = kept;
+
+            // Only the neighbours of contracted stations changed; update their importance in parallel.
+            touched.parallelStream().forEach(v ->
+                    priority[v] = overlay.shortcutsFor(v, contracted, searches.get(), null)
+                            - overlay.degree[v] + deletedNeighbours[v]);
+        }
+
+        // Pack the upward edges into CSR arrays, each row sorted by target.
+        upOffsets = new int[n + 1];
+        for (int v = 0; v < n; v++) {
+            upOffsets[v + 1] = upOffsets[v] + upEdges[v].length / 3;
+        }
+        upTargets = new int[upOffsets[n]];
+        upWeights = new int[upOffsets[n]];
+        upMiddle = new int[upOffsets[n]];
+        for (int v = 0; v < n; v++) {
+            // Sort keys pack (target, edge index) into one long, as in CsrGraph.build.
+            int[] edges = upEdges[v];
+            long[] keys = new long[edges.length / 3];
+            for (int k = 0; k < keys.length; k++) {
+                keys[k] = ((long) edges[3 * k] << 32) | k;
+            }
+            Arrays.sort(keys);
+            for (int k = 0; k < keys.length; k++) {
+                int edge = (int) keys[k];
+                int arc = upOffsets[v] + k;
+                upTargets[arc] = edges[3 * edge];
+                upWeights[arc] = edges[3 * edge + 1];
+                upMiddle[arc] = edges[3 * edge + 2];
+            }
+        }
+    }
+
+    /**
+     * Returns the remaining stations whose priority is smaller than that of
+     * every remaining neighbour. No two of them are neighbours, so they can be
+     * contracted in the same round. Ties are broken by a scrambled station id:
+     * stations along a line usually have consecutive ids, and breaking ties by
+     * the plain id would let only one station per line through each round.
+     */
+    private static int[] independentSet(Overlay overlay, int[] remaining, int count, int[] priority) {
+        IntList chosen = new IntList();
+        for (int k = 0; k < count; k++) {
+            int v = remaining[k];
+            boolean smallest = true;
+            for (int i = 0; i < overlay.degree[v] && smallest; i++) {
+                int u = overlay.neighbours[v][i];
+                smallest = priority[v] < priority[u] || (priority[v] == priority[u] && scramble(v) < scramble(u));
+            }
+            if (smallest) {
+                chosen.add(v);
+            }
+        }
+        return chosen.toArray();
+    }
+
+    /**
+     * Mixes the bits of a station id (a fixed permutation of the ints), used to
+     * break priority ties in a way that doesn't follow the numbering.
+     */
+    private static long scramble(int v) {
+        return ((v * 0x9E3779B9L) & 0xFFFFFFFFL) << 32 | v;
+    }
+
+    @Override
+    public int findRoute(String start, String end, List<String> path) {
+        return findRoute(start, end, path, new QueryStats());
+    }
+
+    @Override
+    public int findRoute(String start, String end, List<String> path, QueryStats stats) {
+        long began = System.nanoTime();
+        stats.reset();
+        stats.algorithm = "ch";
+        path.clear();
+        int source = metro.indexOf(start);
+        int target = metro.indexOf(end);
+        if (source == -1 || target == -1) {
+            path.add(end);
+            return Integer.MAX_VALUE;
+        }
+
+        // Two upward searches over the same upward graph (it is undirected).
+        int n = rank.length;
+        int[][] dist = new int[2][n];
+        int[][] prev = new int[2][n];
+        IndexedMinHeap[] queue = {new IndexedMinHeap(n), new IndexedMinHeap(n)};
+        for (int side = 0; side < 2; side++) {
+            Arrays.fill(dist[side], Integer.MAX_VALUE);
+            Arrays.fill(prev[side], -1);
+        }
+        dist[0][source] = 0;
+        dist[1][target] = 0;
+        queue[0].insertOrDecrease(source, 0);
+        queue[1].insertOrDecrease(target, 0);
+
+        int best = Integer.MAX_VALUE;
+        int meeting = -1;
+        while (!queue[0].isEmpty() || !queue[1].isEmpty()) {
+            // Take a step on the side with the smaller key; a side whose smallest key
+            // can't beat the best route found so far is finished.
+            int side;
+            if (queue[1].isEmpty() || (!queue[0].isEmpty() && queue[0].peekKey() <= queue[1].peekKey())) {
+                side = 0;
+            } else {
+                side = 1;
+            }
+            if (queue[side].peekKey() >= best) {
+                queue[side].clear();
+                continue;
+            }
+            int current = queue[side].poll();
+            stats.settledNodes++;
+            if (dist[1 - side][current] != Integer.MAX_VALUE && dist[0][current] + dist[1][current] < best) {
+                best = dist[0][current] + dist[1][current];
+                meeting = current;
+            }
+            for (int arc = upOffsets[current]; arc < upOffsets[current + 1]; arc++) {
+                stats.relaxedArcs++;
+                int neighbour = upTargets[arc];
+                int newDist = dist[side][current] + upWeights[arc];
+                if (newDist < dist[side][neighbour]) {
+                    dist[side][neighbour] = newDist;
+                    prev[side][neighbour] = current;
+                    queue[side].insertOrDecrease(neighbour, newDist);
+                }
+            }
+        }
+
+        if (meeting == -1) {
+            path.add(end);
+        } else {
+            // Build the route start -> meeting -> destination, expanding every shortcut.
+            IntList stations = new IntList();
+            IntList up = new IntList();
+            for (int step = meeting; step != -1; step = prev[0][step]) {
+                up.add(step);
+            }
+            stations.add(source);
+            for (int k = up.size() - 1; k > 0; k--) {
+                unpack(up.get(k), up.get(k - 1), stations);
+            }
+            for (int step = meeting; prev[1][step] != -1; step = prev[1][step]) {
+                unpack(step, prev[1][step], stations);
+            }
+            for (int k = 0; k < stations.size(); k++) {
+                path.add(metro.nameOf(stations.get(k)));
+            }
+        }
+        stats.elapsedNanos = System.nanoTime() - began;
+        return best;
+    }
+
+    /**
+     * Appends the stations of the edge from u to v, without u itself, replacing
+     * shortcuts by the two edges they stand for.
+     */
+    private void unpack(int u, int v, IntList out) {
+        // The edge is stored at whichever of the two stations has the lower rank.
+        int low = rank[u] < rank[v] ? u : v;
+        int high = low == u ? v : u;
+        int arc = Arrays.binarySearch(upTargets, upOffsets[low], upOffsets[low + 1], high);
+        int middle = upMiddle[arc];
+        if (middle == -1) {
+            out.add(v);
+        } else {
+            unpack(u, middle, out);
+            unpack(middle, v, out);
+        }
+    }
+
+    @Override
+    public int totalFare(String start, String end, List<String> path) {
+        return metro.totalFare(start, end, path);
+    }
+
+    /**
+     * The graph of stations not yet contracted, with shortcuts added. Every
+     * edge is stored at both ends as (neighbour, weight, middle station).
+     */
+    private static final class Overlay {
+        final int[][] neighbours;
+        final int[][] weights;
+        final int[][] middles;
+        final int[] degree;
+
+        Overlay(CsrGraph graph) {
+            int n = graph.nodeCount();
+            neighbours = new int[n][];
+            weights = new int[n][];
+            middles = new int[n][];
+            degree = new int[n];
+            for (int v = 0; v < n; v++) {
+                int size = graph.offsets[v + 1] - graph.offsets[v];
+                neighbours[v] = new int[Math.max(size, 1)];
+                weights[v] = new int[Math.max(size, 1)];
+                middles[v] = new int[Math.max(size, 1)];
+                for (int arc = graph.offsets[v]; arc < graph.offsets[v + 1]; arc++) {
+                    // Self-loops never lie on a shortest route.
+                    if (graph.targets[arc] != v) {
+                        neighbours[v][degree[v]] = graph.targets[arc];
+                        weights[v][degree[v]] = graph.weights[arc];
+                        middles[v][degree[v]] = -1;
+                        degree[v]++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return The edges of v as (neighbour, weight, middle) triples.
+         */
+        int[] edgesOf(int v) {
+            int[] edges = new int[3 * degree[v]];
+            for (int k = 0; k < degree[v]; k++) {
+                edges[3 * k] = neighbours[v][k];
+                edges[3 * k + 1] = weights[v][k];
+                edges[3 * k + 2] = middles[v][k];
+            }
+            return edges;
+        }
+
+        /**
+         * Removes the edge from u to v (only u's side).
+         */
+        void remove(int u, int v) {
+            for (int k = 0; k < degree[u]; k++) {
+                if (neighbours[u][k] == v) {
+                    degree[u]--;
+                    neighbours[u][k] = neighbours[u][degree[u]];
+                    weights[u][k] = weights[u][degree[u]];
+                    middles[u][k] = middles[u][degree[u]];
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Adds a shortcut between u and x, or shortens the existing edge.
+         */
+        void addOrImprove(int u, int x, int weight, int middle) {
+            setEdge(u, x, weight, middle);
+            setEdge(x, u, weight, middle);
+        }
+
+        private void setEdge(int u, int x, int weight, int middle) {
+            for (int k = 0; k < degree[u]; k++) {
+                if (neighbours[u][k] == x) {
+                    if (weight < weights[u][k]) {
+                        weights[u][k] = weight;
+                        middles[u][k] = middle;
+                    }
+                    return;
+                }
+            }
+            if (degree[u] == neighbours[u].length) {
+                int capacity = neighbours[u].length * 2;
+                neighbours[u] = Arrays.copyOf(neighbours[u], capacity);
+                weights[u] = Arrays.copyOf(weights[u], capacity);
+                middles[u] = Arrays.copyOf(middles[u], capacity);
+            }
+            neighbours[u][degree[u]] = x;
+            weights[u][degree[u]] = weight;
+            middles[u][degree[u]] = middle;
+            degree[u]++;
+        }
+
+        /**
+         * Works out which shortcuts contracting v needs: one for every pair of
+         * neighbours whose shortest connection avoiding v is longer than the
+         * route through v. Only reads the overlay, so it can run on many
+         * stations at once.
+         *
+         * @param v The station to contract.
+         * @param contracted Stations the witness searches must avoid (v itself is always avoided).
+         * @param search This thread's search state.
+         * @param out Receives (u, x, weight) triples, or null to only estimate the count
+         *            (with a smaller search limit).
+         * @return The number of shortcuts needed.
+         */
+        int shortcutsFor(int v, boolean[] contracted, WitnessSearch search, IntList out) {
+            int count = 0;
+            for (int i = 0; i < degree[v]; i++) {
+                int u = neighbours[v][i];
+                if (contracted[u]) {
+                    continue;
+                }
+                // Search from u far enough to cover every route through v to a later neighbour.
+                int limit = 0;
+                for (int j = i + 1; j < degree[v]; j++) {
+                    limit = Math.max(limit, weights[v][i] + weights[v][j]);
+                }
+                search.run(this, u, v, contracted, limit, neighbours[v], i + 1, degree[v],
+                        out == null ? ESTIMATE_SETTLE_LIMIT : WITNESS_SETTLE_LIMIT);
+                for (int j = i + 1; j < degree[v]; j++) {
+                    int x = neighbours[v][j];
+                    int via = weights[v][i] + weights[v][j];
+                    if (!contracted[x] && search.distance(x) > via) {
+                        count++;
+                        if (out != null) {
+                            out.add(u);
+                            out.add(x);
+                            out.add(via);
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * A bounded Dijkstra search on the overlay, looking for a route between two
+     * neighbours of a station that doesn't go through it (a "witness"). One
+     * instance is kept per thread and reset cheaply between searches.
+     */
+    private static final class WitnessSearch {
+        private final int[] dist;
+        private final IndexedMinHeap heap;
+        private final IntList touched = new IntList();
+        // target[v] == searchId marks v as one of the stations this search must reach.
+        private final int[] target;
+        private int searchId = 0;
+
+        WitnessSearch(int n) {
+            dist = new int[n];
+            Arrays.fill(dist, Integer.MAX_VALUE);
+            heap = new IndexedMinHeap(n);
+            target = new int[n];
+        }
+
+        /**
+         * Searches from source, avoiding the given station, until every target
+         * is settled, the distance passes maxDist or settleLimit stations have
+         * been settled. The targets are targets[from..to-1].
+         */
+        void run(Overlay overlay, int source, int avoid, boolean[] contracted, int maxDist,
+                int[] targets, int from, int to, int settleLimit) {
+            // Reset only the stations reached by the previous search.
+            for (int k = 0; k < touched.size(); k++) {
+                dist[touched.get(k)] = Integer.MAX_VALUE;
+            }
+            touched.clear();
+            heap.clear();
+            searchId++;
+            int targetsLeft = 0;
+            for (int k = from; k < to; k++) {
+                if (target[targets[k]] != searchId) {
+                    target[targets[k]] = searchId;
+                    targetsLeft++;
+                }
+            }
+
+            dist[source] = 0;
+            touched.add(source);
+            heap.insertOrDecrease(source, 0);
+            int settled = 0;
+            while (!heap.isEmpty() && settled < settleLimit && targetsLeft > 0) {
+                int current = heap.poll();
+                settled++;
+                if (dist[current] > maxDist) {
+                    break;
+                }
+                if (target[current] == searchId) {
+                    targetsLeft--;
+                }
+                for (int k = 0; k < overlay.degree[current]; k++) {
+                    int next = overlay.neighbours[current][k];
+                    if (next == avoid || contracted[next]) {
+                        continue;
+                    }
+                    int newDist = dist[current] + overlay.weights[current][k];
+                    if (newDist < dist[next]) {
+                        if (dist[next] == Integer.MAX_VALUE) {
+                            touched.add(next);
+                        }
+                        dist[next] = newDist;
+                        heap.insertOrDecrease(next, newDist);
+                    }
+                }
+            }
+        }
+
+        int distance(int v) {
+            return dist[v];
+        }
+    }
+
+    /**
+     * A growable list of ints without boxing.
+     */
+    private static final class IntList {
+        private int[] values = new int[8];
+        private int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
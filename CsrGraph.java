@@ -0,0 +1,355 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * A compact, read-only graph stored in compressed-sparse-row (CSR) form.
+ * Stations are numbered 0..n-1 and all arcs leaving station u are stored next
+ * to each other in the arrays below, between offsets[u] and offsets[u + 1].
+ * Within one station's row the arcs are sorted by target, so a single arc can
+ * be found with a binary search.
+ */
+final class CsrGraph {
+
+    // offsets[u] is the index of the first arc of station u; offsets[n] is the arc count.
+    final int[] offsets;
+    // For every arc: the station it leads to, its distance weight, its fare and
+    // the id of the metro line it belongs to (-1 for an edge that isn't on a line).
+    final int[] targets;
+    final int[] weights;
+    final int[] fares;
+    final int[] lines;
+
+    private CsrGraph(int[] offsets, int[] targets, int[] weights, int[] fares, int[] lines) {
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.fares = fares;
+        this.lines = lines;
+    }
+
+    /**
+     * Builds a CSR graph from a list of undirected edges. Every edge is stored
+     * in both directions. If the same pair of stations is given more than once,
+     * the edge added last wins, just like repeated puts into a map.
+     *
+     * @param nodeCount The number of stations (ids 0..nodeCount-1).
+     * @param from The first station id of every edge.
+     * @param to The second station id of every edge.
+     * @param distance The distance weight of every edge.
+     * @param fare The fare of every edge.
+     * @param line The line id of every edge (-1 if it isn't on a line).
+     * @param edgeCount How many entries of the edge arrays are in use.
+     * @return The finished graph.
+     */
+    static CsrGraph build(int nodeCount, int[] from, int[] to, int[] distance, int[] fare, int[] line, int edgeCount) {
+        // Step 1: count the arcs leaving every station (each edge gives two arcs,
+        // except a self-loop which only gives one).
+        int[] rowStart = new int[nodeCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            rowStart[from[e] + 1]++;
+            if (from[e] != to[e]) {
+                rowStart[to[e] + 1]++;
+            }
+        }
+        for (int u = 0; u < nodeCount; u++) {
+            rowStart[u + 1] += rowStart[u];
+        }
+
+        // Step 2: place the arcs into their rows in insertion order (a stable counting sort).
+        int arcCount = rowStart[nodeCount];
+        int[] rawTarget = new int[arcCount];
+        int[] rawEdge = new int[arcCount];
+        int[] fill = Arrays.copyOf(rowStart, nodeCount);
+        for (int e = 0; e < edgeCount; e++) {
+            int slot = fill[from[e]]++;
+            rawTarget[slot] = to[e];
+            rawEdge[slot] = e;
+            if (from[e] != to[e]) {
+                slot = fill[to[e]]++;
+                rawTarget[slot] = from[e];
+                rawEdge[slot] = e;
+            }
+        }
+
+        // Step 3: sort every row by target and drop duplicates, keeping the last added edge.
+        // The sort key packs (target, position in row) into one long, so no boxing is needed.
+        int[] offsets = new int[nodeCount + 1];
+        int[] targets = new int[arcCount];
+        int[] weights = new int[arcCount];
+        int[] fares = new int[arcCount];
+        int[] lines = new int[arcCount];
+        long[] keys = new long[0];
+        int out = 0;
+        for (int u = 0; u < nodeCount; u++) {
+            offsets[u] = out;
+            int begin = rowStart[u];
+            int length = rowStart[u + 1] - begin;
+            if (keys.length < length) {
+                keys = new long[Math.max(length, keys.length * 2)];
+            }
+            for (int k = 0; k < length; k++) {
+                keys[k] = ((long) rawTarget[begin + k] << 32) | k;
+            }
+            Arrays.sort(keys, 0, length);
+            for (int k = 0; k < length; k++) {
+                int target = (int) (keys[k] >>> 32);
+                // Skip this arc if a later one leads to the same station.
+                if (k + 1 < length && (int) (keys[k + 1] >>> 32) == target) {
+                    continue;
+                }
+                int e = rawEdge[begin + (int) keys[k]];
+                targets[out] = target;
+                weights[out] = distance[e];
+                fares[out] = fare[e];
+                lines[out] = line[e];
+                out++;
+            }
+        }
+        offsets[nodeCount] = out;
+
+        return new CsrGraph(offsets, Arrays.copyOf(targets, out),
+                Arrays.copyOf(weights, out), Arrays.copyOf(fares, out), Arrays.copyOf(lines, out));
+    }
+
+    /**
+     * Starts a set of changes to a few arcs of this graph. The graph itself is
+     * not changed, since it may be in use by other copies of the MetroGraph;
+     * Patch.apply returns a new one.
+     *
+     * @return An empty patch.
+     */
+    Patch patch() {
+        return new Patch(this);
+    }
+
+    /**
+     * Changes to a few arcs, made into a new graph by apply(). Every change
+     * is to an undirected edge, so it is made to the arcs in both directions.
+     * Only the rows of the stations at the changed edges are rebuilt; all
+     * other rows are copied as they are, without sorting them again.
+     */
+    static final class Patch {
+
+        private final CsrGraph base;
+        // For every changed row, the arcs to put into it by target:
+        // {weight, fare, line}, or null for an arc to remove.
+        private final Map<Integer, TreeMap<Integer, int[]>> rows = new HashMap<>();
+
+        private Patch(CsrGraph base) {
+            this.base = base;
+        }
+
+        /**
+         * Adds an edge, or replaces the one already between the two stations.
+         */
+        Patch put(int from, int to, int weight, int fare, int line) {
+            change(from, to, new int[] {weight, fare, line});
+            change(to, from, new int[] {weight, fare, line});
+            return this;
+        }
+
+        /**
+         * Removes the edge between two stations, if there is one.
+         */
+        Patch remove(int from, int to) {
+            change(from, to, null);
+            change(to, from, null);
+            return this;
+        }
+
+        /**
+         * Changes the fare of the edge between two stations, if there is one
+         * and its fare is different.
+         */
+        Patch setFare(int from, int to, int fare) {
+            int[] arc = arc(from, to);
+            if (arc != null && arc[1] != fare) {
+                put(from, to, arc[0], fare, arc[2]);
+            }
+            return this;
+        }
+
+        /**
+         * @return {weight, fare, line} of an arc with this patch applied, or null if there is none.
+         */
+        private int[] arc(int from, int to) {
+            TreeMap<Integer, int[]> row = rows.get(from);
+            if (row != null && row.containsKey(to)) {
+                return row.get(to);
+            }
+            int arc = from < base.nodeCount() && to < base.nodeCount() ? base.findArc(from, to) : -1;
+            return arc == -1 ? null : new int[] {base.weights[arc], base.fares[arc], base.lines[arc]};
+        }
+
+        private void change(int from, int to, int[] arc) {
+            rows.computeIfAbsent(from, row -> new TreeMap<>()).put(to, arc);
+        }
+
+        /**
+         * Makes the graph with the changes applied.
+         *
+         * @param nodeCount The number of stations; at least that of the graph patched.
+         * @return The new graph.
+         */
+        CsrGraph apply(int nodeCount) {
+            if (nodeCount == base.nodeCount() && !changesStructure()) {
+                return withValues();
+            }
+            return withRows(nodeCount);
+        }
+
+        /**
+         * @return true if an arc is added or removed, not only given new values.
+         */
+        private boolean changesStructure() {
+            for (Map.Entry<Integer, TreeMap<Integer, int[]>> row : rows.entrySet()) {
+                for (Map.Entry<Integer, int[]> arc : row.getValue().entrySet()) {
+                    if (exists(row.getKey(), arc.getKey()) != (arc.getValue() != null)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean exists(int from, int to) {
+            return from < base.nodeCount() && base.findArc(from, to) != -1;
+        }
+
+        /**
+         * Only values of existing arcs change: the arrays holding changed
+         * values are copied, and all others are shared with the old graph.
+         */
+        private CsrGraph withValues() {
+            int[] weights = base.weights;
+            int[] fares = base.fares;
+            int[] lines = base.lines;
+            for (Map.Entry<Integer, TreeMap<Integer, int[]>> row : rows.entrySet()) {
+                for (Map.Entry<Integer, int[]> change : row.getValue().entrySet()) {
+                    int arc = base.findArc(row.getKey(), change.getKey());
+                    int[] value = change.getValue();
+                    if (weights[arc] != value[0]) {
+                        weights = weights == base.weights ? weights.clone() : weights;
+                        weights[arc] = value[0];
+                    }
+                    if (fares[arc] != value[1]) {
+                        fares = fares == base.fares ? fares.clone() : fares;
+                        fares[arc] = value[1];
+                    }
+                    if (lines[arc] != value[2]) {
+                        lines = lines == base.lines ? lines.clone() : lines;
+                        lines[arc] = value[2];
+                    }
+                }
+            }
+            return new CsrGraph(base.offsets, base.targets, weights, fares, lines);
+        }
+
+        /**
+         * Arcs are added or removed: the changed rows are merged with their
+         * changes, and the runs of unchanged rows between them are copied in
+         * one piece each, only moved to their new offsets.
+         */
+        private CsrGraph withRows(int nodeCount) {
+            int arcCount = base.targets.length;
+            for (Map.Entry<Integer, TreeMap<Integer, int[]>> row : rows.entrySet()) {
+                for (Map.Entry<Integer, int[]> arc : row.getValue().entrySet()) {
+                    boolean exists = exists(row.getKey(), arc.getKey());
+                    if (exists && arc.getValue() == null) {
+                        arcCount--;
+                    } else if (!exists && arc.getValue() != null) {
+                        arcCount++;
+                    }
+                }
+            }
+            int[] offsets = new int[nodeCount + 1];
+            int[] targets = new int[arcCount];
+            int[] weights = new int[arcCount];
+            int[] fares = new int[arcCount];
+            int[] lines = new int[arcCount];
+
+            List<Integer> changed = new ArrayList<>(rows.keySet());
+            Collections.sort(changed);
+            changed.add(nodeCount);
+            int out = 0;
+            int next = 0;
+            for (int row : changed) {
+                // The unchanged rows before this one all move by the same amount.
+                int begin = rowStart(next);
+                int end = rowStart(row);
+                for (int u = next; u < row; u++) {
+                    offsets[u] = rowStart(u) - begin + out;
+                }
+                System.arraycopy(base.targets, begin, targets, out, end - begin);
+                System.arraycopy(base.weights, begin, weights, out, end - begin);
+                System.arraycopy(base.fares, begin, fares, out, end - begin);
+                System.arraycopy(base.lines, begin, lines, out, end - begin);
+                out += end - begin;
+                if (row == nodeCount) {
+                    break;
+                }
+
+                // Both the old row and the changes are sorted by target, so one merge keeps the row sorted.
+                offsets[row] = out;
+                int arc = rowStart(row);
+                int rowEnd = rowStart(row + 1);
+                for (Map.Entry<Integer, int[]> change : rows.get(row).entrySet()) {
+                    int target = change.getKey();
+                    for (; arc < rowEnd && base.targets[arc] < target; arc++, out++) {
+                        targets[out] = base.targets[arc];
+                        weights[out] = base.weights[arc];
+                        fares[out] = base.fares[arc];
+                        lines[out] = base.lines[arc];
+                    }
+                    if (arc < rowEnd && base.targets[arc] == target) {
+                        arc++; // Replaced or removed.
+                    }
+                    int[] value = change.getValue();
+                    if (value != null) {
+                        targets[out] = target;
+                        weights[out] = value[0];
+                        fares[out] = value[1];
+                        lines[out] = value[2];
+                        out++;
+                    }
+                }
+                for (; arc < rowEnd; arc++, out++) {
+                    targets[out] = base.targets[arc];
+                    weights[out] = base.weights[arc];
+                    fares[out] = base.fares[arc];
+                    lines[out] = base.lines[arc];
+                }
+                next = row + 1;
+            }
+            offsets[nodeCount] = out;
+            return new CsrGraph(offsets, targets, weights, fares, lines);
+        }
+
+        /**
+         * @return The first arc of a row of the old graph; rows past its end are empty.
+         */
+        private int rowStart(int u) {
+            return base.offsets[Math.min(u, base.nodeCount())];
+        }
+    }
+
+    /**
+     * @return The number of stations in the graph.
+     */
+    int nodeCount() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Finds the arc going from one station to another.
+     *
+     * @param from The starting station id.
+     * @param to The destination station id.
+     * @return The arc index, or -1 if the stations are not directly connected.
+     */
+    int findArc(int from, int to) {
+        int index = Arrays.binarySearch(targets, offsets[from], offsets[from + 1], to);
+        return index >= 0 ? index : -1;
+    }
+}
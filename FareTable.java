@@ -0,0 +1,49 @@
+package pune;
+
+/**
+ * The fares between the stations of one line. Fares are the same in both
+ * directions. A table never changes; withFare returns an updated table.
+ *
+ * Two implementations exist: PackedFareTable keeps the fares in a compact
+ * array on the Java heap, and OffHeapFareStore keeps the tables of many
+ * lines together in one block of memory outside the heap.
+ */
+interface FareTable {
+
+    /**
+     * @return The number of stations the table covers.
+     */
+    int size();
+
+    /**
+     * Looks up a fare; the order of the two stations doesn't matter.
+     * @param from The position of the first station.
+     * @param to The position of the second station.
+     * @return The fare, or 0 for the same station or positions outside the table.
+     */
+    int fare(int from, int to);
+
+    /**
+     * Returns a table with the fare between two stations changed (in both directions).
+     * @param from The position of the first station.
+     * @param to The position of the second station.
+     * @param newFare The new fare.
+     * @return The updated table.
+     */
+    FareTable withFare(int from, int to, int newFare);
+
+    /**
+     * @return The fares as a full, symmetric n x n matrix (a new array each time).
+     */
+    default int[][] toMatrix() {
+        int n = size();
+        int[][] matrix = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                matrix[i][j] = fare(i, j);
+                matrix[j][i] = matrix[i][j];
+            }
+        }
+        return matrix;
+    }
+}
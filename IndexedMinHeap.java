@@ -0,0 +1,162 @@
+package pune;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of station ids with integer keys. Unlike
+ * java.util.PriorityQueue it keeps track of where every station sits in the
+ * heap, so a station's key can be lowered in place (decrease-key) instead of
+ * adding a second copy. Each station is in the heap at most once and nothing
+ * is boxed.
+ */
+final class IndexedMinHeap {
+
+    // heap[0..size-1] holds station ids ordered as a binary heap on their keys.
+    private final int[] heap;
+    // keys[v] is the current key of station v while it is in the heap.
+    private final int[] keys;
+    // position[v] is the index of station v in heap[], or -1 if it isn't in the heap.
+    private final int[] position;
+    private int size = 0;
+
+    /**
+     * Creates an empty heap for station ids 0..capacity-1.
+     *
+     * @param capacity The number of stations.
+     */
+    IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        keys = new int[capacity];
+        position = new int[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    /**
+     * @return true if there are no stations in the heap.
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The number of stations currently in the heap.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param station A station id.
+     * @return true if the station is currently in the heap.
+     */
+    boolean contains(int station) {
+        return position[station] != -1;
+    }
+
+    /**
+     * Adds a station with the given key, or lowers its key if it is already in
+     * the heap. A key that is not lower than the current one is ignored.
+     *
+     * @param station The station id.
+     * @param key The new key (for Dijkstra, the tentative distance).
+     */
+    void insertOrDecrease(int station, int key) {
+        int index = position[station];
+        if (index == -1) {
+            // New entry: put it at the bottom and let it move up.
+            index = size++;
+            heap[index] = station;
+            position[station] = index;
+            keys[station] = key;
+            siftUp(index);
+        } else if (key < keys[station]) {
+            // Existing entry: a smaller key can only move it towards the top.
+            keys[station] = key;
+            siftUp(index);
+        }
+    }
+
+    /**
+     * @return The station with the smallest key, without removing it.
+     */
+    int peek() {
+        return heap[0];
+    }
+
+    /**
+     * @return The smallest key in the heap.
+     */
+    int peekKey() {
+        return keys[heap[0]];
+    }
+
+    /**
+     * Removes and returns the station with the smallest key.
+     *
+     * @return The station id.
+     */
+    int poll() {
+        int top = heap[0];
+        position[top] = -1;
+        size--;
+        if (size > 0) {
+            // Move the last entry to the top and let it sink to its place.
+            int last = heap[size];
+            heap[0] = last;
+            position[last] = 0;
+            siftDown(0);
+        }
+        return top;
+    }
+
+    /**
+     * Removes every station, so the heap can be reused for another search.
+     * Only the entries still in the heap are touched.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int index) {
+        int station = heap[index];
+        int key = keys[station];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            int parentStation = heap[parent];
+            if (keys[parentStation] <= key) {
+                break;
+            }
+            heap[index] = parentStation;
+            position[parentStation] = index;
+            index = parent;
+        }
+        heap[index] = station;
+        position[station] = index;
+    }
+
+    private void siftDown(int index) {
+        int station = heap[index];
+        int key = keys[station];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            // Pick the smaller of the two children.
+            if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+                child++;
+            }
+            if (keys[heap[child]] >= key) {
+                break;
+            }
+            heap[index] = heap[child];
+            position[heap[index]] = index;
+            index = child;
+        }
+        heap[index] = station;
+        position[station] = index;
+    }
+}
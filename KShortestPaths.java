@@ -0,0 +1,228 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * Finds the k shortest loopless routes between two stations with Yen's
+ * algorithm, for offering alternatives when a line is disrupted.
+ *
+ * <p>Yen's algorithm takes the shortest route, and for every station on it
+ * (the "spur" station) searches for a detour: the part of the route before
+ * the spur station is kept, the hops that earlier routes took out of the spur
+ * station are blocked, and a new shortest path is searched from the spur
+ * station to the destination without passing the kept part again. The best
+ * detour found so far becomes the next route.
+ *
+ * <p>A query makes many such spur searches, so they share one set of arrays
+ * and one heap. Instead of clearing the arrays before every search, each
+ * search and each set of blocked stations and hops gets a new stamp; an
+ * entry only counts if it carries the current stamp. The searches are A*
+ * searches guided by the exact distance to the destination in the unblocked
+ * network (one Dijkstra from the destination per query). Blocking hops can
+ * only make routes longer, so these distances are valid lower bounds, and a
+ * spur search whose best continuation isn't blocked goes straight to the
+ * destination.
+ */
+final class KShortestPaths {
+
+    /**
+     * A route found by a spur search, waiting to be chosen.
+     */
+    private static final class Candidate {
+        final int[] stations;
+        final int distance;
+
+        Candidate(int[] stations, int distance) {
+            this.stations = stations;
+            this.distance = distance;
+        }
+    }
+
+    private final MetroGraph metro;
+    private final CsrGraph graph;
+
+    // Search state shared by all spur searches; see the class comment for the stamps.
+    private final int[] dist;
+    private final int[] prev;
+    private final int[] seen;
+    private final int[] blockedStation;
+    private final int[] blockedArc;
+    private final IndexedMinHeap heap;
+    private int searchStamp;
+    private int blockStamp;
+    // Distance from every station to the current destination in the unblocked network.
+    private final int[] toTarget;
+
+    /**
+     * @param metro The graph to route on. It must not change while this object is used.
+     */
+    KShortestPaths(MetroGraph metro) {
+        this.metro = metro;
+        this.graph = metro.graph();
+        int n = graph.nodeCount();
+        dist = new int[n];
+        prev = new int[n];
+        seen = new int[n];
+        blockedStation = new int[n];
+        blockedArc = new int[graph.targets.length];
+        heap = new IndexedMinHeap(n);
+        toTarget = new int[n];
+    }
+
+    /**
+     * Finds up to k loopless routes from start to end, shortest first.
+     *
+     * @param start The name of the starting station.
+     * @param end The name of the destination station.
+     * @param k The largest number of routes wanted.
+     * @return The routes with their distances and fares; fewer than k if the
+     *         network doesn't have that many, and empty if there is no route.
+     */
+    synchronized List<Route> findRoutes(String start, String end, int k) {
+        List<Route> routes = new ArrayList<>();
+        int source = metro.indexOf(start);
+        int target = metro.indexOf(end);
+        if (source == -1 || target == -1 || k <= 0) {
+            return routes;
+        }
+
+        // The graph is undirected, so a search from the destination gives the
+        // remaining distance from every station to it.
+        int n = graph.nodeCount();
+        metro.searchFrom(target, toTarget, prev, new int[n], heap);
+        if (toTarget[source] == Integer.MAX_VALUE) {
+            return routes;
+        }
+
+        List<int[]> found = new ArrayList<>();
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(
+                Comparator.comparingInt((Candidate c) -> c.distance).thenComparingInt(c -> c.stations.length));
+        // Every route found or queued, so the same detour isn't queued twice.
+        Set<List<Integer>> known = new HashSet<>();
+
+        nextBlockStamp();
+        int[] shortest = spurPath(source, target, null, 0);
+        found.add(shortest);
+        known.add(asList(shortest));
+
+        while (found.size() < k) {
+            int[] last = found.get(found.size() - 1);
+            int rootDistance = 0;
+            for (int spur = 0; spur < last.length - 1; spur++) {
+                int spurStation = last[spur];
+                nextBlockStamp();
+                // Block the hop out of the spur station taken by every found route
+                // that shares this route's first spur + 1 stations.
+                for (int[] route : found) {
+                    if (route.length > spur + 1 && Arrays.equals(route, 0, spur + 1, last, 0, spur + 1)) {
+                        int arc = graph.findArc(route[spur], route[spur + 1]);
+                        blockedArc[arc] = blockStamp;
+                    }
+                }
+                // Keep the detour loopless: it must not pass the stations before the spur.
+                for (int i = 0; i < spur; i++) {
+                    blockedStation[last[i]] = blockStamp;
+                }
+
+                int[] route = spurPath(spurStation, target, last, spur);
+                if (route != null) {
+                    List<Integer> key = asList(route);
+                    if (known.add(key)) {
+                        candidates.add(new Candidate(route, rootDistance + dist[target]));
+                    }
+                }
+                rootDistance += graph.weights[graph.findArc(spurStation, last[spur + 1])];
+            }
+            if (candidates.isEmpty()) {
+                break;
+            }
+            found.add(candidates.poll().stations);
+        }
+
+        for (int[] route : found) {
+            List<String> path = new ArrayList<>(route.length);
+            int distance = 0;
+            for (int i = 0; i < route.length; i++) {
+                path.add(metro.nameOf(route[i]));
+                if (i > 0) {
+                    distance += graph.weights[graph.findArc(route[i - 1], route[i])];
+                }
+            }
+            routes.add(new Route(path, distance, metro.routeFare(route, route.length)));
+        }
+        return routes;
+    }
+
+    /**
+     * Searches the shortest path from a spur station to the target that
+     * avoids the blocked stations and hops, and puts the root part in front.
+     *
+     * @param spurStation The station the search starts from.
+     * @param target The destination.
+     * @param root The route whose first rootLength stations come before the spur station (null if none).
+     * @param rootLength The number of root stations before the spur station.
+     * @return The whole route, or null if the target can't be reached.
+     */
+    private int[] spurPath(int spurStation, int target, int[] root, int rootLength) {
+        int stamp = ++searchStamp;
+        seen[spurStation] = stamp;
+        dist[spurStation] = 0;
+        prev[spurStation] = -1;
+        heap.insertOrDecrease(spurStation, toTarget[spurStation]);
+        boolean reached = false;
+        while (!heap.isEmpty()) {
+            int current = heap.poll();
+            if (current == target) {
+                reached = true;
+                break;
+            }
+            for (int arc = graph.offsets[current]; arc < graph.offsets[current + 1]; arc++) {
+                int neighbor = graph.targets[arc];
+                if (blockedArc[arc] == blockStamp || blockedStation[neighbor] == blockStamp
+                        || toTarget[neighbor] == Integer.MAX_VALUE) {
+                    continue;
+                }
+                int newDist = dist[current] + graph.weights[arc];
+                if (seen[neighbor] != stamp || newDist < dist[neighbor]) {
+                    seen[neighbor] = stamp;
+                    dist[neighbor] = newDist;
+                    prev[neighbor] = current;
+                    heap.insertOrDecrease(neighbor, newDist + toTarget[neighbor]);
+                }
+            }
+        }
+        heap.clear();
+        if (!reached) {
+            return null;
+        }
+
+        int spurLength = 0;
+        for (int step = target; step != -1; step = prev[step]) {
+            spurLength++;
+        }
+        int[] route = new int[rootLength + spurLength];
+        if (root != null) {
+            System.arraycopy(root, 0, route, 0, rootLength);
+        }
+        int i = route.length;
+        for (int step = target; step != -1; step = prev[step]) {
+            route[--i] = step;
+        }
+        return route;
+    }
+
+    /**
+     * Starts a new set of blocked stations and hops; the old ones no longer count.
+     */
+    private void nextBlockStamp() {
+        blockStamp++;
+    }
+
+    private static List<Integer> asList(int[] route) {
+        List<Integer> list = new ArrayList<>(route.length);
+        for (int station : route) {
+            list.add(station);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,225 @@
+package pune;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps the network as a directory with one text file per line instead of
+ * one file for everything. The line files are read in parallel, and saving
+ * only rewrites the files of lines that changed, so neither grows with the
+ * number of lines that weren't touched.
+ *
+ * <p>The directory holds:
+ * <pre>
+ *   manifest.txt        "journal N", then the name of every line file in display order
+ *   1-purple-0.txt      one line in the metro data text format (see MetroDataReader)
+ *   2-aqua-6.txt        ...
+ *   changes.journal     admin changes made since (see ChangeJournal)
+ * </pre>
+ * N is the number of the last journal change the line files include. A
+ * changed line is written to a new file, named after its display position,
+ * its name and that number; the manifest is then replaced in one step, and
+ * only after that are the old files deleted. After a crash the manifest
+ * therefore names either the old set of files or the new one, both complete.
+ */
+final class LineDataDirectory {
+
+    private static final String MANIFEST = "manifest.txt";
+    private static final String JOURNAL = "changes.journal";
+    private static final String LINE_FILE_SUFFIX = ".txt";
+
+    private final Path directory;
+    // The line objects last read or written, and the files holding them. Lines
+    // never change, so a line whose object is still the same needs no writing.
+    private final Map<String, MetroLine> saved = new HashMap<>();
+    private final Map<String, String> files = new HashMap<>();
+    private long journalSequence;
+
+    /**
+     * @param directory The data directory; it is created by the first write.
+     */
+    LineDataDirectory(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return true if the directory holds a network (has a manifest).
+     */
+    boolean exists() {
+        return Files.exists(directory.resolve(MANIFEST));
+    }
+
+    /**
+     * @return The change journal kept with the line files.
+     */
+    Path journalFile() {
+        return directory.resolve(JOURNAL);
+    }
+
+    /**
+     * @return The number of the last journal change included in the files read or written last.
+     */
+    synchronized long journalSequence() {
+        return journalSequence;
+    }
+
+    /**
+     * Reads every line named by the manifest. The files are parsed in
+     * parallel, each with a registry of its own; the stations are then given
+     * their ids in display order, so they get the same ids however the work
+     * was divided.
+     *
+     * @param registry The registry that gives the stations their ids.
+     * @return The lines, in display order.
+     * @throws IOException if a file can't be read or is not in the expected format.
+     */
+    synchronized List<MetroLine> read(StationRegistry registry) throws IOException {
+        List<String> manifest = Files.readAllLines(directory.resolve(MANIFEST));
+        if (manifest.isEmpty() || !manifest.get(0).startsWith("journal ")) {
+            throw new IOException(directory.resolve(MANIFEST) + " doesn't start with the journal number");
+        }
+        long sequence;
+        try {
+            sequence = Long.parseLong(manifest.get(0).substring("journal ".length()).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException(directory.resolve(MANIFEST) + ": invalid journal number", e);
+        }
+        List<String> fileNames = new ArrayList<>();
+        for (String fileName : manifest.subList(1, manifest.size())) {
+            if (!fileName.isBlank()) {
+                fileNames.add(fileName.trim());
+            }
+        }
+
+        List<Callable<List<MetroLine>>> tasks = new ArrayList<>();
+        for (String fileName : fileNames) {
+            tasks.add(() -> MetroDataReader.read(directory.resolve(fileName), new StationRegistry()));
+        }
+        List<MetroLine> lines = new ArrayList<>();
+        Map<String, String> lineFiles = new HashMap<>();
+        List<Future<List<MetroLine>>> results = ForkJoinPool.commonPool().invokeAll(tasks);
+        for (int f = 0; f < results.size(); f++) {
+            for (MetroLine line : result(results.get(f))) {
+                if (lineFiles.putIfAbsent(line.name(), fileNames.get(f)) != null) {
+                    throw new IOException("The " + line.name() + " line is in both " + lineFiles.get(line.name())
+                            + " and " + fileNames.get(f));
+                }
+                List<String> stations = new ArrayList<>(line.stations().size());
+                for (String station : line.stations()) {
+                    stations.add(registry.canonical(station));
+                }
+                lines.add(new MetroLine(line.name(), stations, line.distance(), line.fareTable()));
+            }
+        }
+
+        journalSequence = sequence;
+        files.clear();
+        files.putAll(lineFiles);
+        saved.clear();
+        for (MetroLine line : lines) {
+            saved.put(line.name(), line);
+        }
+        return lines;
+    }
+
+    private static List<MetroLine> result(Future<List<MetroLine>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // The pool wraps checked exceptions in a RuntimeException; report the original.
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the line files");
+        }
+    }
+
+    /**
+     * Notes that the lines of a network are the ones the files hold, for
+     * example after they were copied off the heap. A line is only rewritten
+     * once it is replaced by a different one.
+     *
+     * @param snapshot A network with the lines read last, in any form.
+     */
+    synchronized void markSaved(NetworkSnapshot snapshot) {
+        for (MetroLine line : snapshot.lines().values()) {
+            if (files.containsKey(line.name())) {
+                saved.put(line.name(), line);
+            }
+        }
+    }
+
+    /**
+     * Saves a network: writes the files of the lines that changed since the
+     * last read or write, then the manifest, and deletes the files the old
+     * manifest named that are no longer used. Called by the change journal
+     * when it is compacted.
+     *
+     * @param snapshot The network to save.
+     * @param sequence The number of the last journal change the network includes.
+     * @throws IOException if a file can't be written.
+     */
+    synchronized void write(NetworkSnapshot snapshot, long sequence) throws IOException {
+        Files.createDirectories(directory);
+        Map<String, String> nextFiles = new LinkedHashMap<>();
+        int position = 0;
+        for (MetroLine line : snapshot.lines().values()) {
+            position++;
+            String fileName = files.get(line.name());
+            if (fileName == null || saved.get(line.name()) != line) {
+                fileName = position + "-" + safeName(line.name()) + "-" + sequence + LINE_FILE_SUFFIX;
+                AtomicFile.write(directory.resolve(fileName), out -> MetroDataWriter.write(List.of(line), out));
+            }
+            nextFiles.put(line.name(), fileName);
+        }
+
+        StringBuilder manifest = new StringBuilder("journal " + sequence + "\n");
+        for (String fileName : nextFiles.values()) {
+            manifest.append(fileName).append('\n');
+        }
+        AtomicFile.write(directory.resolve(MANIFEST), out -> out.write(manifest.toString().getBytes(StandardCharsets.UTF_8)));
+
+        // Only now is it safe to delete the files the old manifest named. Other
+        // files in the directory are left alone; they may not be ours.
+        Set<String> used = new HashSet<>(nextFiles.values());
+        for (String fileName : files.values()) {
+            if (!used.contains(fileName)) {
+                Files.deleteIfExists(directory.resolve(fileName));
+            }
+        }
+
+        journalSequence = sequence;
+        files.clear();
+        files.putAll(nextFiles);
+        saved.clear();
+        for (MetroLine line : snapshot.lines().values()) {
+            saved.put(line.name(), line);
+        }
+    }
+
+    /**
+     * @return A line name with everything but letters and digits replaced, for use in a file name.
+     */
+    private static String safeName(String lineName) {
+        StringBuilder name = new StringBuilder(lineName.length());
+        for (int i = 0; i < lineName.length(); i++) {
+            char c = lineName.charAt(i);
+            name.append(c < 128 && Character.isLetterOrDigit(c) ? c : '_');
+        }
+        return name.toString();
+    }
+}
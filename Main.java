@@ -1,93 +1,338 @@
 package pune;
 
-import java.io.BufferedReader; // Used to efficiently read text from a character-input stream
-import java.io.BufferedWriter; // Used to efficiently write text to a character-output stream
 import java.io.File; // Used to represent file and directory pathnames
-import java.io.FileReader; // Used to read character files
-import java.io.FileWriter; // Used to write character files
 import java.io.IOException; // Represents an I/O exception
+import java.nio.file.Files; // Moves an outdated change journal out of the way
+import java.nio.file.Path; // Locates files such as the landmark tables
 import java.util.*; // Import utility classes (Scanner, List, etc.)
+import java.util.concurrent.ForkJoinPool; // Runs the searches of a batch of route queries
+import java.util.concurrent.atomic.AtomicReference; // Holds the current network snapshot
 
 public class Main {
 
     // Name of the file where metro data will be stored permanently
     private static final String DATA_FILE = "metro_data.txt";
-    // Maps to store the metro network data in memory
-    private static Map<String, List<String>> lineStations = new HashMap<>(); // Key: line name (e.g., "purple"), Value: list of station names
-    private static Map<String, int[][]> lineFares = new HashMap<>(); // Key: line name, Value: 2D array of fares between stations
-    private static Map<String, Integer> lineDistances = new HashMap<>(); // Key: line name, Value: arbitrary distance weight for the line
+    // Binary copy of the same data, written together with the text file; read instead
+    // of the text file at start-up unless the text file includes later changes (see NetworkFile)
+    private static final String SNAPSHOT_FILE = "metro_data.bin";
+    // Admin changes made since the data files were last written (see ChangeJournal)
+    private static final String JOURNAL_FILE = "metro_data.journal";
+    // Journal size in bytes above which the data files are rewritten and the
+    // journal emptied (-Dmetro.journalLimit=...)
+    private static final long JOURNAL_LIMIT = Long.getLong("metro.journalLimit", 1 << 20);
+    // Group commit (-Dmetro.groupCommitMs=...): admin changes made within this many
+    // milliseconds of each other are forced to disk together. 0 (the default)
+    // forces every change to disk before the admin menu continues.
+    private static final long GROUP_COMMIT_MS = Long.getLong("metro.groupCommitMs", 0);
+    // Keep the network in a directory with one file per line (-Dmetro.dataDir=...)
+    // instead of in DATA_FILE and SNAPSHOT_FILE; see LineDataDirectory. The
+    // directory is created from the usual data files the first time it is used.
+    private static final String DATA_DIR = System.getProperty("metro.dataDir");
+    // File where the landmark tables of the "alt" route engine are kept between runs
+    private static final String LANDMARK_FILE = "metro_landmarks.bin";
+    // Route engine used for passenger queries: "dijkstra" (default), "tree" (Dijkstra
+    // with the shortest-path trees of recent origins cached), "bidirectional",
+    // "alt" (A* with landmarks), "ch" (contraction hierarchies) or "allpairs" for
+    // precomputed tables. Chosen with -Dmetro.engine=...
+    private static final String ROUTE_ENGINE = System.getProperty("metro.engine", "dijkstra");
+    private static final List<String> ROUTE_ENGINES = List.of("dijkstra", "tree", "bidirectional", "alt", "ch", "allpairs");
+    // Print search statistics after every route (-Dmetro.stats=true)
+    private static final boolean SHOW_STATS = Boolean.getBoolean("metro.stats");
+    // Also list the other routes worth considering on distance, fare and line
+    // changes (-Dmetro.routeOptions=true; see ParetoRouter)
+    private static final boolean ROUTE_OPTIONS = Boolean.getBoolean("metro.routeOptions");
+    // Also list up to this many next-shortest routes, for when a line is disrupted
+    // (-Dmetro.alternatives=...; 0, the default, lists none; see KShortestPaths)
+    private static final int ALTERNATIVES = Integer.getInteger("metro.alternatives", 0);
+    // Number of recent routes kept by the route cache (-Dmetro.cacheSize=...)
+    private static final int ROUTE_CACHE_SIZE = Integer.getInteger("metro.cacheSize", 512);
+    // Keep the fare tables of the loaded lines outside the Java heap, in one block
+    // (-Dmetro.offHeapFares=true). Useful for very large, multi-city networks.
+    private static final boolean OFF_HEAP_FARES = Boolean.getBoolean("metro.offHeapFares");
+    // Memory-map the snapshot file instead of reading it (-Dmetro.mapSnapshot=true):
+    // fares are then read from the file when needed, so start-up time doesn't grow
+    // with the size of the fare tables. The fares are already outside the heap, so
+    // metro.offHeapFares has no effect on a mapped snapshot.
+    private static final boolean MAP_SNAPSHOT = Boolean.getBoolean("metro.mapSnapshot");
+    // The current metro network (lines, stations, fares and route graph). Snapshots
+    // are immutable: admin functions build a new one and publish it in one step,
+    // so a passenger query always sees a complete network.
+    private static final AtomicReference<NetworkSnapshot> network = new AtomicReference<>();
+    // The engine answering passenger queries, and the graph and graph version it
+    // was built for. Engines like "allpairs" precompute tables for one graph, so a
+    // new engine is created only when the graph is replaced or changed.
+    private static RouteEngine routeEngine;
+    private static MetroGraph routeEngineGraph;
+    private static long routeEngineVersion = -1;
+    // Recent passenger routes; cleared automatically when the network version changes.
+    private static final RouteCache routeCache = new RouteCache(ROUTE_CACHE_SIZE);
+    // Where admin changes are saved.
+    private static ChangeJournal journal;
+    // Held while a change is applied, published and appended to the journal, so
+    // two admins can't both build on the same snapshot and one edit be lost.
+    private static final Object commitLock = new Object();
 
     public static void main(String[] args) {
+        // A misspelled engine name would otherwise go unnoticed, so refuse to start
+        if (!ROUTE_ENGINES.contains(ROUTE_ENGINE)) {
+            System.out.println("Unknown route engine '" + ROUTE_ENGINE + "'. Use -Dmetro.engine= with one of "
+                    + String.join(", ", ROUTE_ENGINES) + ".");
+            return;
+        }
+
         // Step 1: Load data from the file or initialize with defaults if the file doesn't exist.
         loadDataFromFile();
 
-        // Step 2: Main application loop for user interaction
-        try (Scanner sc = new Scanner(System.in)) {
-            System.out.println("Are you a passenger or an admin? (p/a): ");
-            String userType = sc.nextLine().trim();
+        try {
+            // "--batch FILE" answers a file of origin/destination pairs instead of showing the menus
+            if (args.length == 2 && args[0].equals("--batch")) {
+                answerBatch(Path.of(args[1]));
+                return;
+            }
+
+            // Step 2: Main application loop for user interaction
+            try (Scanner sc = new Scanner(System.in)) {
+                System.out.println("Are you a passenger or an admin? (p/a): ");
+                String userType = sc.nextLine().trim();
 
-            if (userType.equalsIgnoreCase("a")) { // If user is an admin
-                if (adminLogin(sc)) { // Check admin credentials
-                    adminMenu(sc); // Show admin options
-                } else {
-                    System.out.println("❌ Invalid credentials. Exiting.");
+                if (userType.equalsIgnoreCase("a")) { // If user is an admin
+                    if (adminLogin(sc)) { // Check admin credentials
+                        adminMenu(sc); // Show admin options
+                    } else {
+                        System.out.println("❌ Invalid credentials. Exiting.");
+                    }
+                } else { // If user is a passenger or any other input
+                    passengerMenu(sc); // Show passenger options (route planning)
                 }
-            } else { // If user is a passenger or any other input
-                passengerMenu(sc); // Show passenger options (route planning)
             }
+        } finally {
+            closeJournal(); // Let a compaction that is still running finish
         }
         System.out.println("\n🙏 Thank you for using Pune Metro Route Planner!");
     }
 
     // --- File Handling and Data Initialization ---
     /**
-     * Tries to load metro data from the DATA_FILE. If the file exists, it reads
-     * the data and populates the in-memory maps. If not, it initializes the
-     * data with default values.
+     * Loads the metro data, from the DATA_DIR if one is set and otherwise
+     * from the data files (see loadDataFiles).
      */
     private static void loadDataFromFile() {
+        if (DATA_DIR == null) {
+            loadDataFiles();
+            return;
+        }
+        LineDataDirectory directory = new LineDataDirectory(Path.of(DATA_DIR));
+        if (!directory.exists()) {
+            // First use: start from the data files and copy them into the directory
+            loadDataFiles();
+            createDataDirectory(directory);
+            return;
+        }
+        System.out.println("Loading metro data from " + DATA_DIR + "...");
+        try {
+            StationRegistry registry = new StationRegistry();
+            List<MetroLine> lines = directory.read(registry);
+            network.set(NetworkSnapshot.of(registry, OFF_HEAP_FARES ? OffHeapFareStore.moveOffHeap(lines) : lines));
+            directory.markSaved(network.get());
+            openJournal(directory.journalFile(), directory.journalSequence(), directory::write);
+        } catch (IOException e) {
+            // Leave the directory untouched, so it can be fixed, and use the data files meanwhile
+            System.out.println("Error reading data directory: " + e.getMessage());
+            loadDataFiles();
+        }
+    }
+
+    /**
+     * Writes the current network into a new data directory and switches to its journal.
+     */
+    private static void createDataDirectory(LineDataDirectory directory) {
+        try {
+            // A journal without a manifest belongs to no data; keep it out of the way
+            if (!setJournalAside(directory.journalFile())) {
+                System.out.println("Data directory not created; the data files are used instead.");
+                return;
+            }
+            directory.write(network.get(), 0);
+        } catch (IOException e) {
+            System.out.println("Error creating data directory: " + e.getMessage());
+            return;
+        }
+        closeJournal();
+        openJournal(directory.journalFile(), 0, directory::write);
+        System.out.println("Created data directory " + DATA_DIR + ".");
+    }
+
+    /**
+     * Loads the metro data. Both data files start with the number of the last
+     * journal change they include. The binary SNAPSHOT_FILE is used if it can
+     * be read and is at least as far along as DATA_FILE; otherwise the text
+     * file is imported. If neither exists, the data is initialized with
+     * default values. Admin changes recorded in the JOURNAL_FILE after that
+     * number are then applied again.
+     */
+    private static void loadDataFiles() {
+        File snapshot = new File(SNAPSHOT_FILE);
+        File text = new File(DATA_FILE);
+        // -1 if the text file has no "# journal N" line, for example because it was written by hand
+        long textSequence = -1;
+        if (text.exists()) {
+            try {
+                textSequence = MetroDataReader.journalSequence(text.toPath());
+            } catch (IOException e) {
+                // Reported when the file is imported below
+            }
+        }
+        if (snapshot.exists()) {
+            try {
+                long sequence = NetworkFile.journalSequence(snapshot.toPath());
+                // A text file with a higher number was saved after the snapshot, by
+                // a run that stopped before it could write the snapshot too
+                if (sequence >= textSequence) {
+                    System.out.println("Loading metro data from snapshot...");
+                    StationRegistry registry = new StationRegistry();
+                    if (MAP_SNAPSHOT) {
+                        network.set(NetworkSnapshot.of(registry, NetworkFile.map(snapshot.toPath(), registry)));
+                    } else {
+                        List<MetroLine> lines = NetworkFile.read(snapshot.toPath(), registry);
+                        network.set(NetworkSnapshot.of(registry, OFF_HEAP_FARES ? OffHeapFareStore.moveOffHeap(lines) : lines));
+                    }
+                    if (text.exists() && text.lastModified() > snapshot.lastModified()) {
+                        // Only a hint: the times alone can't tell an edit from a copied file
+                        System.out.println("Note: " + DATA_FILE + " was changed after " + SNAPSHOT_FILE
+                                + " was written. Delete " + SNAPSHOT_FILE + " to load it instead.");
+                    }
+                    openJournal(Path.of(JOURNAL_FILE), sequence, Main::writeDataFiles);
+                    return;
+                }
+            } catch (IOException e) {
+                // The text file holds the same data, so fall back to it
+                System.out.println("Error reading snapshot file: " + e.getMessage());
+            }
+        }
+        // Without a journal number the journal's changes were made to other data,
+        // so applying them could go wrong. Move it aside before a new snapshot is written.
+        boolean journalUsable = textSequence >= 0 || setJournalAside(Path.of(JOURNAL_FILE));
+        long sequence = Math.max(textSequence, 0);
+        boolean imported = importTextFile(sequence);
+        if (!imported && textSequence >= 0) {
+            // The default data is in use instead of the text file
+            sequence = 0;
+            journalUsable = setJournalAside(Path.of(JOURNAL_FILE));
+        }
+        if (!journalUsable) {
+            // Appending to the old journal would mix its changes with these
+            System.out.println("⚠️ No change journal could be opened; admin changes will not be saved.");
+            return;
+        }
+        openJournal(Path.of(JOURNAL_FILE), sequence, Main::writeDataFiles);
+        if (imported && textSequence < 0) {
+            // Save the files again with their journal number, so the next start can rely on it.
+            // Not after falling back to the default data: the text file must stay as it is to be fixed.
+            try {
+                writeDataFiles(network.get(), sequence);
+            } catch (IOException e) {
+                System.out.println("Error saving data files: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Opens the change journal and applies the changes that aren't in the
+     * loaded network yet. If the journal can't be read, it is set aside and a
+     * new one is tried once; if that fails too, the program runs without a
+     * journal and admin changes are not saved.
+     *
+     * @param file The journal file.
+     * @param sequence The number of the last change the loaded network includes.
+     * @param writer Saves the whole network when the journal is compacted.
+     */
+    private static void openJournal(Path file, long sequence, ChangeJournal.SnapshotWriter writer) {
+        journal = null;
+        for (int attempt = 1; attempt <= 2; attempt++) {
+            try {
+                ChangeJournal.Replayed replayed = ChangeJournal.open(
+                        file, network.get(), sequence, JOURNAL_LIMIT, GROUP_COMMIT_MS, writer);
+                journal = replayed.journal;
+                network.set(replayed.network);
+                if (replayed.changes > 0) {
+                    System.out.println("Applied " + replayed.changes + " saved change(s) from the change journal.");
+                }
+                return;
+            } catch (IOException e) {
+                System.out.println("Error reading change journal: " + e.getMessage());
+                // Try again with a new journal, but only once and only if the old one is out of the way
+                if (attempt == 2 || !setJournalAside(file)) {
+                    break;
+                }
+            }
+        }
+        System.out.println("⚠️ No change journal could be opened; admin changes will not be saved.");
+    }
+
+    /**
+     * Renames a journal file (if there is one) so it is kept but not used.
+     *
+     * @return true if there is no journal file any more, false if it couldn't be renamed.
+     */
+    private static boolean setJournalAside(Path file) {
+        if (Files.exists(file)) {
+            try {
+                Path old = ChangeJournal.setAside(file);
+                System.out.println("The change journal is no longer used; it was kept as " + old + ".");
+            } catch (IOException e) {
+                System.out.println("Error moving change journal: " + e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the change journal to finish any work and closes it.
+     */
+    private static void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.out.println("Error closing change journal: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Reads metro data from the text DATA_FILE and publishes it as the current
+     * network. If the file doesn't exist or can't be read, the data is
+     * initialized with default values.
+     *
+     * @param sequence The number of the last journal change the file includes.
+     * @return true if the file was read, false if the default data is used.
+     */
+    private static boolean importTextFile(long sequence) {
         File file = new File(DATA_FILE);
         if (file.exists()) {
             System.out.println("Loading metro data from file...");
-            try (BufferedReader reader = new BufferedReader(new FileReader(DATA_FILE))) {
-                // Clear existing data to avoid duplicates or old data
-                lineStations.clear();
-                lineFares.clear();
-                lineDistances.clear();
-
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (line.trim().isEmpty()) {
-                        continue; // Skip empty lines
-                    }
-                    String lineName = line.trim();
-                    if (lineName.endsWith(" Line")) { // Identify the start of a new line's data
-                        lineName = lineName.substring(0, lineName.lastIndexOf(" ")).toLowerCase();
-
-                        // Read stations, distances, and fares for the line
-                        String stationsLine = reader.readLine();
-                        List<String> stations = Arrays.asList(stationsLine.split(","));
-                        lineStations.put(lineName, new ArrayList<>(stations));
-
-                        String distanceLine = reader.readLine();
-                        int distance = Integer.parseInt(distanceLine);
-                        lineDistances.put(lineName, distance);
-
-                        int n = stations.size();
-                        int[][] fares = new int[n][n];
-                        for (int i = 0; i < n; i++) {
-                            String fareRow = reader.readLine();
-                            String[] fareValues = fareRow.split(",");
-                            for (int j = 0; j < n; j++) {
-                                fares[i][j] = Integer.parseInt(fareValues[j]);
-                            }
-                        }
-                        lineFares.put(lineName, fares);
-                    }
+            try {
+                // Gives every station an id and keeps one copy of each name, even
+                // when a station is listed on several lines
+                StationRegistry registry = new StationRegistry();
+                List<MetroLine> lines = MetroDataReader.read(file.toPath(), registry);
+                network.set(NetworkSnapshot.of(registry, OFF_HEAP_FARES ? OffHeapFareStore.moveOffHeap(lines) : lines));
+                // Keep a binary copy, so the next start doesn't have to parse the text again
+                try {
+                    NetworkFile.write(network.get(), sequence, Path.of(SNAPSHOT_FILE));
+                } catch (IOException e) {
+                    System.out.println("Error saving snapshot file: " + e.getMessage());
                 }
-            } catch (IOException | NumberFormatException e) {
+                return true;
+            } catch (MetroDataFormatException e) {
+                // Say exactly where the file is wrong, so it can be fixed
+                System.out.println("Error in data file: " + e.getMessage());
+                System.out.println("Initializing with default data.");
+                initializeDefaultData();
+            } catch (IOException e) {
                 // Handle file read errors gracefully by falling back to default data
-                System.out.println("Error reading data file. Initializing with default data.");
+                System.out.println("Error reading data file: " + e.getMessage() + ". Initializing with default data.");
                 initializeDefaultData();
             }
         } else {
@@ -95,6 +340,7 @@ public class Main {
             System.out.println("No data file found. Initializing with default data.");
             initializeDefaultData();
         }
+        return false;
     }
 
     /**
@@ -103,63 +349,85 @@ public class Main {
      */
     private static void initializeDefaultData() {
         // Hardcoded data for the Purple Line
-        lineStations.put("purple", new ArrayList<>(Arrays.asList(
+        List<String> purpleStations = new ArrayList<>(Arrays.asList(
                 "PCMC", "Sant Tukaram Nagar", "Bhosari", "Kasarwadi", "Phugewadi",
                 "Dapodi", "Bopodi", "Shivaji Nagar", "Civil Court",
                 "Kasba Peth (Budhwar Peth)", "Mandal", "Swargate"
-        )));
+        ));
         int[][] purpleFares = {
             {0, 15, 15, 20, 20, 25, 25, 30, 30, 30, 30, 30},
             {15, 0, 10, 15, 15, 20, 25, 25, 25, 30, 30, 30},
             // ... (fares for purple line)
             {30, 30, 30, 30, 30, 30, 30, 25, 25, 25, 10, 0}
         };
-        lineFares.put("purple", purpleFares);
-        lineDistances.put("purple", 1); // Arbitrary distance weight for this line
+        MetroLine purple = new MetroLine("purple", purpleStations, 1, purpleFares); // Arbitrary distance weight 1 for this line
 
         // Hardcoded data for the Aqua Line
-        lineStations.put("aqua", new ArrayList<>(Arrays.asList(
+        List<String> aquaStations = new ArrayList<>(Arrays.asList(
                 "Vanaz", "Anand Nagar", "Ideal Colony", "Nal Stop",
                 "Garware College", "Deccan Gymkhana", "Chhatrapati Sambhaji Udyan",
                 "PMC", "Civil Court", "Mangalwar Peth",
                 "Pune Railway Station", "Ruby Hall Clinic", "Bund Garden",
                 "Yerwada", "Kalyani Nagar", "Ramwadi"
-        )));
+        ));
         int[][] aquaFares = {
             {0, 10, 20, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 30, 35, 35},
             // ... (fares for aqua line)
             {35, 35, 35, 35, 35, 35, 35, 25, 25, 25, 25, 25, 25, 25, 20, 0}
         };
-        lineFares.put("aqua", aquaFares);
-        lineDistances.put("aqua", 2); // Arbitrary distance weight for this line
+        MetroLine aqua = new MetroLine("aqua", aquaStations, 2, aquaFares); // Arbitrary distance weight 2 for this line
+
+        network.set(NetworkSnapshot.of(List.of(purple, aqua)));
     }
 
     /**
-     * Saves the current in-memory metro data to the DATA_FILE. This method
-     * overwrites the file with the new data.
+     * Writes a network to the DATA_FILE and then to the SNAPSHOT_FILE,
+     * overwriting both. Each starts with the journal number, so if the
+     * program stops between the two, the next start can tell that the text
+     * file is the newer one. Called by the change journal when it is
+     * compacted, possibly on another thread.
+     *
+     * @param snapshot The network to save.
+     * @param sequence The number of the last journal change the network includes.
+     * @throws IOException if a file can't be written.
      */
-    private static void saveDataToFile() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(DATA_FILE))) {
-            for (String lineName : lineStations.keySet()) {
-                writer.write(lineName + " Line\n"); // Write line name
-                writer.write(String.join(",", lineStations.get(lineName)) + "\n"); // Write stations as a comma-separated list
-                writer.write(String.valueOf(lineDistances.get(lineName)) + "\n"); // Write distance weight
-                int[][] fares = lineFares.get(lineName);
-                for (int[] row : fares) {
-                    StringBuilder fareRow = new StringBuilder();
-                    for (int i = 0; i < row.length; i++) {
-                        fareRow.append(row[i]);
-                        if (i < row.length - 1) {
-                            fareRow.append(",");
-                        }
-                    }
-                    writer.write(fareRow.toString() + "\n"); // Write each row of the fare matrix
-                }
-                writer.write("\n"); // Add a blank line as a separator between line data
+    private static void writeDataFiles(NetworkSnapshot snapshot, long sequence) throws IOException {
+        // Written through a temporary file (see AtomicFile), so a crash while
+        // saving leaves the old file as it was instead of half written
+        AtomicFile.write(Path.of(DATA_FILE), out -> MetroDataWriter.write(snapshot.lines().values(), sequence, out));
+        NetworkFile.write(snapshot, sequence, Path.of(SNAPSHOT_FILE));
+    }
+
+    /**
+     * Applies an admin change, publishes the new network and saves the change
+     * by appending it to the change journal. The data files are only rewritten
+     * when the journal is compacted. Changes are committed one at a time, so
+     * the journal records them in the order they were published.
+     *
+     * @param change The change; it must already have been checked against the current network.
+     * @return true if the change was made, false if it no longer fits the network.
+     */
+    private static boolean commit(NetworkChange change) {
+        synchronized (commitLock) {
+            NetworkSnapshot next;
+            try {
+                next = change.applyTo(network.get());
+            } catch (IllegalArgumentException e) {
+                // Another admin changed the network since this change was checked
+                System.out.println("Change not made: " + e.getMessage());
+                return false;
             }
-            System.out.println("Data saved successfully.");
-        } catch (IOException e) {
-            System.out.println("Error saving data to file: " + e.getMessage());
+            publish(next);
+            if (journal == null) {
+                System.out.println("⚠️ This change is not saved: no change journal is open.");
+                return true;
+            }
+            try {
+                journal.append(change, next);
+            } catch (IOException e) {
+                System.out.println("Error saving change: " + e.getMessage());
+            }
+            return true;
         }
     }
 
@@ -196,24 +464,22 @@ public class Main {
             try {
                 int choice = Integer.parseInt(choiceStr);
                 switch (choice) {
-                    case 1 -> {
+                    // Every action saves its change to the journal (see commit)
+                    case 1 ->
                         addNewStation(sc);
-                        saveDataToFile(); // Save changes after every action
-                    }
-                    case 2 -> {
+                    case 2 ->
                         addNewLine(sc);
-                        saveDataToFile();
-                    }
-                    case 3 -> {
+                    case 3 ->
                         updateFare(sc);
-                        saveDataToFile();
-                    }
-                    case 4 -> {
+                    case 4 ->
                         removeStation(sc);
-                        saveDataToFile();
-                    }
-                    case 5 ->
+                    case 5 -> {
+                        // Bring the data files up to date, so they can be read or edited by hand
+                        if (journal != null) {
+                            journal.compactNow(network.get());
+                        }
                         adminExit = true;
+                    }
                     default ->
                         System.out.println("Invalid choice. Please try again.");
                 }
@@ -227,14 +493,16 @@ public class Main {
      * Adds a new station to an existing line and adjusts the fare matrix.
      */
     private static void addNewStation(Scanner sc) {
+        NetworkSnapshot snapshot = network.get();
         System.out.print("Enter line name (purple/aqua): ");
         String lineName = sc.nextLine().trim().toLowerCase();
-        if (!lineStations.containsKey(lineName)) {
+        MetroLine line = snapshot.line(lineName);
+        if (line == null) {
             System.out.println("Invalid line name.");
             return;
         }
 
-        List<String> stations = lineStations.get(lineName);
+        List<String> stations = line.stations();
         System.out.print("Enter new station name: ");
         String newStation = sc.nextLine().trim();
         System.out.printf("Enter position (1 to %d) for the new station: ", stations.size() + 1);
@@ -246,48 +514,27 @@ public class Main {
             return;
         }
 
-        stations.add(position - 1, newStation);
-
-        int oldSize = stations.size() - 1;
-        int[][] oldFares = lineFares.get(lineName);
-        int[][] newFares = new int[stations.size()][stations.size()];
-
-        // This is a simplified logic to rebuild the fare matrix.
-        // It copies old fares and sets new fares based on a simple heuristic (e.g., adjacent fare is 10).
-        for (int i = 0; i < stations.size(); i++) {
-            for (int j = 0; j < stations.size(); j++) {
-                if (i == j) {
-                    newFares[i][j] = 0;
-                } else if (Math.abs(i - j) == 1) {
-                    newFares[i][j] = 10;
-                } else {
-                    int oldI = i > position - 1 ? i - 1 : i;
-                    int oldJ = j > position - 1 ? j - 1 : j;
-                    if (oldI < oldSize && oldJ < oldSize) {
-                        newFares[i][j] = oldFares[oldI][oldJ];
-                    } else {
-                        newFares[i][j] = 25;
-                    }
-                }
-            }
+        if (!commit(NetworkChange.addStation(lineName, newStation, position))) {
+            return;
         }
-        lineFares.put(lineName, newFares);
         System.out.println("Station '" + newStation + "' added successfully to " + lineName + " line.");
     }
 
     /**
      * Removes a station from an existing line and rebuilds the fare matrix. It
-     * prevents the removal of the Civil Court interchange.
+     * prevents the removal of interchange stations (stations on two or more lines).
      */
     private static void removeStation(Scanner sc) {
+        NetworkSnapshot snapshot = network.get();
         System.out.print("Enter line name (purple/aqua): ");
         String lineName = sc.nextLine().trim().toLowerCase();
-        if (!lineStations.containsKey(lineName)) {
+        MetroLine line = snapshot.line(lineName);
+        if (line == null) {
             System.out.println("Invalid line name.");
             return;
         }
 
-        List<String> stations = lineStations.get(lineName);
+        List<String> stations = line.stations();
         if (stations.size() <= 2) {
             System.out.println("Cannot remove station. A line must have at least two stations.");
             return;
@@ -302,35 +549,14 @@ public class Main {
             return;
         }
 
-        if (stationToRemove.equals("Civil Court")) {
-            System.out.println("The Civil Court station cannot be removed as it is a crucial interchange point.");
+        if (snapshot.isInterchange(stationToRemove)) {
+            System.out.println("The " + stationToRemove + " station cannot be removed as it is a crucial interchange point.");
             return;
         }
 
-        stations.remove(indexToRemove);
-
-        // Rebuild fare matrix by copying from the old matrix, skipping the removed station's row and column
-        int oldSize = stations.size() + 1;
-        int[][] oldFares = lineFares.get(lineName);
-        int[][] newFares = new int[stations.size()][stations.size()];
-
-        int newI = 0;
-        for (int i = 0; i < oldSize; i++) {
-            if (i == indexToRemove) {
-                continue;
-            }
-            int newJ = 0;
-            for (int j = 0; j < oldSize; j++) {
-                if (j == indexToRemove) {
-                    continue;
-                }
-                newFares[newI][newJ] = oldFares[i][j];
-                newJ++;
-            }
-            newI++;
+        if (!commit(NetworkChange.removeStation(lineName, stationToRemove))) {
+            return;
         }
-
-        lineFares.put(lineName, newFares);
         System.out.println("Station '" + stationToRemove + "' removed successfully from " + lineName + " line.");
     }
 
@@ -341,7 +567,7 @@ public class Main {
     private static void addNewLine(Scanner sc) {
         System.out.print("Enter new line name: ");
         String newLineName = sc.nextLine().trim().toLowerCase();
-        if (lineStations.containsKey(newLineName)) {
+        if (network.get().line(newLineName) != null) {
             System.out.println("Line already exists.");
             return;
         }
@@ -349,28 +575,28 @@ public class Main {
         System.out.print("Enter stations for the new line (comma-separated): ");
         String stationsStr = sc.nextLine().trim();
         List<String> newStations = Arrays.asList(stationsStr.split("\\s*,\\s*"));
-        lineStations.put(newLineName, new ArrayList<>(newStations));
 
         System.out.print("Enter distance weight for the new line: ");
         int distance = sc.nextInt();
         sc.nextLine();
-        lineDistances.put(newLineName, distance);
 
+        // Fares are the same in both directions, so each pair of stations is asked once
         int n = newStations.size();
         int[][] newFares = new int[n][n];
         System.out.println("Enter fares for the new line:");
         for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                if (i == j) {
-                    newFares[i][j] = 0;
-                } else {
-                    System.out.printf("Fare from %s to %s: ", newStations.get(i), newStations.get(j));
-                    newFares[i][j] = sc.nextInt();
-                }
+            for (int j = i + 1; j < n; j++) {
+                System.out.printf("Fare between %s and %s: ", newStations.get(i), newStations.get(j));
+                newFares[i][j] = sc.nextInt();
+                newFares[j][i] = newFares[i][j];
             }
         }
-        lineFares.put(newLineName, newFares);
+        // Publish the whole line at once, only after all its data has been entered
+        boolean added = commit(NetworkChange.addLine(newLineName, newStations, distance, newFares));
         sc.nextLine();
+        if (!added) {
+            return;
+        }
         System.out.println("New line '" + newLineName + "' added successfully.");
     }
 
@@ -386,16 +612,16 @@ public class Main {
         int newFare = sc.nextInt();
         sc.nextLine();
 
+        // Look for a line with both stations among the lines serving the source
         boolean updated = false;
-        for (String lineName : lineStations.keySet()) {
-            List<String> stations = lineStations.get(lineName);
-            int srcIdx = stations.indexOf(source);
-            int destIdx = stations.indexOf(destination);
-
-            if (srcIdx != -1 && destIdx != -1) {
-                int[][] fares = lineFares.get(lineName);
-                fares[srcIdx][destIdx] = newFare;
-                fares[destIdx][srcIdx] = newFare;
+        NetworkSnapshot snapshot = network.get();
+        for (StationIndex.Stop stop : snapshot.stations().stopsAt(source)) {
+            int destIdx = snapshot.stations().positionOn(destination, stop.line);
+            if (destIdx != -1) {
+                // The change updates the same line: the first one with both stations
+                if (!commit(NetworkChange.updateFare(source, destination, newFare))) {
+                    return;
+                }
                 updated = true;
                 break;
             }
@@ -414,9 +640,11 @@ public class Main {
      */
     private static void passengerMenu(Scanner sc) {
         while (true) {
-            // Rebuild the graph for each search to ensure it uses the latest data
-            MetroGraph metro = buildMetroGraph();
-            displayStations();
+            // Use one snapshot for the whole query, so an admin edit made meanwhile
+            // can't mix two versions of the network in one answer
+            NetworkSnapshot snapshot = network.get();
+            RouteEngine engine = currentRouteEngine(snapshot);
+            displayStations(snapshot);
 
             System.out.print("\nSelect source station number: ");
             int srcChoice = sc.nextInt();
@@ -424,8 +652,8 @@ public class Main {
             int destChoice = sc.nextInt();
             sc.nextLine();
 
-            String source = getStationName(srcChoice);
-            String destination = getStationName(destChoice);
+            String source = getStationName(snapshot, srcChoice);
+            String destination = getStationName(snapshot, destChoice);
 
             if (source == null || destination == null) {
                 System.out.println("⚠️ Invalid station selection.");
@@ -437,28 +665,35 @@ public class Main {
                 continue;
             }
 
-            // Find the shortest path using Dijkstra's algorithm
-            List<String> path = new ArrayList<>();
-            metro.dijkstra(source, destination, path);
+            // Find the shortest path and its fare, from the route cache if this
+            // pair was asked for before on the same network version
+            QueryStats stats = new QueryStats();
+            Route route = routeCache.find(source, destination, snapshot.version(), engine, stats);
+            List<String> path = route.path();
+            int totalFare = route.fare();
 
-            // Calculate the total fare based on the shortest path
-            int totalFare = 0;
-            for (int i = 0; i < path.size() - 1; i++) {
-                totalFare += metro.getFare(path.get(i), path.get(i + 1));
+            if (route.distance() == Integer.MAX_VALUE) {
+                System.out.println("⚠️ No route found between " + source + " and " + destination + ".");
+                continue;
             }
 
-            // Display the user-friendly route and total fare
-            List<String> displayPath = buildDisplayPath(source, destination);
-            System.out.println("\n🗺️ Route: " + String.join(" -> ", displayPath));
+            // Display the route and total fare
+            System.out.println("\n🗺️ Route: " + String.join(" -> ", path));
             System.out.println("💰 Total Fare: ₹" + totalFare);
+            if (SHOW_STATS) {
+                System.out.println("   (" + stats + ")");
+                System.out.println("   (" + routeCache + ")");
+            }
 
-            // Provide a helpful message if an interchange is needed
-            if (path.contains("Civil Court") && !source.equals("Civil Court") && !destination.equals("Civil Court")) {
-                String srcLine = findLine(source);
-                String dstLine = findLine(destination);
-                if (srcLine != null && dstLine != null && !srcLine.equals(dstLine)) {
-                    System.out.println("   ↳ Change at Civil Court to switch lines");
-                }
+            // Tell the passenger where to change lines, if anywhere
+            for (String change : lineChanges(snapshot, path)) {
+                System.out.println("   ↳ " + change);
+            }
+            if (ROUTE_OPTIONS) {
+                printRouteOptions(snapshot, source, destination, path);
+            }
+            if (ALTERNATIVES > 0) {
+                printAlternatives(snapshot, source, destination, path);
             }
 
             System.out.print("\nDo you want to search another route? (yes/no): ");
@@ -468,136 +703,192 @@ public class Main {
         }
     }
 
-    // --- Helper Methods ---
     /**
-     * Builds and returns a new MetroGraph object with the current in-memory
-     * data. This ensures the graph is always up-to-date with any admin changes.
+     * Answers every origin/destination pair in a file in one batch (see
+     * BatchRouteQuery), for planning reports. Prints one line per pair: the
+     * two stations, the distance and the fare, or "no route".
      *
-     * @return a MetroGraph object representing the current metro network.
+     * @param file A text file with one "origin,destination" pair per line.
      */
-    private static MetroGraph buildMetroGraph() {
-        MetroGraph metro = new MetroGraph();
-        for (Map.Entry<String, List<String>> entry : lineStations.entrySet()) {
-            String lineName = entry.getKey();
-            List<String> stations = entry.getValue();
-            int[][] fares = lineFares.get(lineName);
-            int distance = lineDistances.get(lineName);
-            for (int i = 0; i < stations.size(); i++) {
-                for (int j = 0; j < stations.size(); j++) {
-                    metro.addEdge(stations.get(i), stations.get(j), distance, fares[i][j]);
+    private static void answerBatch(Path file) {
+        List<BatchRouteQuery.Pair> pairs = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(file)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] stations = line.split(",");
+                if (stations.length != 2) {
+                    System.out.println("Skipping invalid pair: " + line);
+                    continue;
                 }
+                pairs.add(new BatchRouteQuery.Pair(stations[0].trim(), stations[1].trim()));
+            }
+        } catch (IOException e) {
+            System.out.println("Error reading batch file: " + e.getMessage());
+            return;
+        }
+
+        BatchRouteQuery.Result result = BatchRouteQuery.run(network.get().graph(), pairs, ForkJoinPool.commonPool());
+        for (int i = 0; i < result.size(); i++) {
+            BatchRouteQuery.Pair pair = pairs.get(i);
+            if (result.distance(i) == Integer.MAX_VALUE) {
+                System.out.println(pair.origin + "," + pair.destination + ",no route");
+            } else {
+                System.out.println(pair.origin + "," + pair.destination + "," + result.distance(i) + "," + result.fare(i));
             }
         }
-        // Add a special edge for the interchange point at Civil Court
-        metro.addEdge("Civil Court", "Civil Court", 0, 0);
-        return metro;
     }
 
     /**
-     * Prints all stations on each line with a combined numbering system.
+     * Prints the routes that are cheaper or need fewer line changes than the
+     * one shown, even if they are longer (the Pareto set, see ParetoRouter).
+     *
+     * @param shown The route already shown to the passenger.
      */
-    private static void displayStations() {
-        int counter = 1;
-        for (Map.Entry<String, List<String>> entry : lineStations.entrySet()) {
-            String lineName = entry.getKey();
-            List<String> stations = entry.getValue();
-            System.out.printf("\n=== %s Line (%s → %s) ===%n",
-                    Character.toUpperCase(lineName.charAt(0)) + lineName.substring(1),
-                    stations.get(0), stations.get(stations.size() - 1));
-
-            for (int i = 0; i < stations.size(); i++) {
-                System.out.printf("%d. %s%n", counter, stations.get(i));
-                if (stations.get(i).equals("Civil Court")) {
-                    System.out.println("   ↳ (Interchange with other lines)");
-                }
-                counter++;
+    private static void printRouteOptions(NetworkSnapshot snapshot, String source, String destination, List<String> shown) {
+        List<ParetoRouter.Option> options = new ParetoRouter(snapshot.graph()).findRoutes(source, destination);
+        options.removeIf(option -> option.path.equals(shown));
+        if (!options.isEmpty()) {
+            System.out.println("\n🔀 Other routes worth considering:");
+            for (ParetoRouter.Option option : options) {
+                System.out.println("   " + option);
             }
         }
     }
 
     /**
-     * Converts a user's station number choice to a station name.
+     * Prints the next-shortest loopless routes after the one shown, up to
+     * ALTERNATIVES of them (see KShortestPaths).
      *
-     * @param choice The number entered by the user.
-     * @return The corresponding station name, or null if invalid.
+     * @param shown The route already shown to the passenger.
      */
-    private static String getStationName(int choice) {
-        int counter = 1;
-        for (List<String> stations : lineStations.values()) {
-            if (choice >= counter && choice < counter + stations.size()) {
-                return stations.get(choice - counter);
+    private static void printAlternatives(NetworkSnapshot snapshot, String source, String destination, List<String> shown) {
+        // One more than wanted, since the shortest route is among them
+        List<Route> routes = new KShortestPaths(snapshot.graph()).findRoutes(source, destination, ALTERNATIVES + 1);
+        routes.removeIf(route -> route.path().equals(shown));
+        if (routes.size() > ALTERNATIVES) {
+            routes = routes.subList(0, ALTERNATIVES);
+        }
+        if (!routes.isEmpty()) {
+            System.out.println("\n🔁 Alternative routes:");
+            for (Route route : routes) {
+                System.out.println("   " + String.join(" -> ", route.path())
+                        + " (distance " + route.distance() + ", fare ₹" + route.fare() + ")");
             }
-            counter += stations.size();
         }
-        return null;
     }
 
+    // --- Helper Methods ---
     /**
-     * Builds a user-friendly path for display, handling single-line and
-     * interchange journeys.
+     * Makes a new snapshot the current network. Queries already running keep
+     * the snapshot they started with; new queries see this one.
+     *
+     * @param snapshot the snapshot produced by an admin change.
      */
-    private static List<String> buildDisplayPath(String source, String destination) {
-        List<String> route = new ArrayList<>();
-        String civil = "Civil Court";
-
-        String srcLine = findLine(source);
-        String destLine = findLine(destination);
+    private static void publish(NetworkSnapshot snapshot) {
+        network.set(snapshot);
+    }
 
-        if (srcLine == null || destLine == null) {
-            route.add(source);
-            route.add(destination);
-            return route;
+    /**
+     * Returns the engine for passenger queries on a snapshot, creating a new
+     * one only if the graph has changed since the current one was created.
+     * The graph itself is compared as well as its version: a network loaded
+     * again (NetworkSnapshot.of) starts counting versions from 0 and could
+     * otherwise be answered by an engine built for a different graph.
+     */
+    private static synchronized RouteEngine currentRouteEngine(NetworkSnapshot snapshot) {
+        MetroGraph graph = snapshot.graph();
+        if (routeEngine == null || routeEngineGraph != graph || routeEngineVersion != graph.version()) {
+            routeEngine = createRouteEngine(graph);
+            routeEngineGraph = graph;
+            routeEngineVersion = graph.version();
         }
+        return routeEngine;
+    }
 
-        if (srcLine.equals(destLine)) {
-            List<String> stations = lineStations.get(srcLine);
-            int from = stations.indexOf(source);
-            int to = stations.indexOf(destination);
-            addInclusive(route, stations, from, to, false);
-        } else {
-            List<String> srcStations = lineStations.get(srcLine);
-            List<String> destStations = lineStations.get(destLine);
+    /**
+     * Wraps a metro graph in the route engine selected by ROUTE_ENGINE.
+     *
+     * @param metro the graph built from the current data.
+     * @return the engine used to answer passenger queries.
+     */
+    private static RouteEngine createRouteEngine(MetroGraph metro) {
+        return switch (ROUTE_ENGINE) {
+            case "allpairs" -> new AllPairsRouteEngine(metro);
+            case "bidirectional" -> metro.engine(SearchMode.BIDIRECTIONAL);
+            case "alt" -> AltRouteEngine.loadOrBuild(metro, Path.of(LANDMARK_FILE));
+            case "ch" -> new ContractionHierarchy(metro);
+            case "tree" -> new ShortestPathTreeEngine(metro, ShortestPathTreeEngine.DEFAULT_TREES);
+            default -> metro; // "dijkstra"; other names are rejected when the program starts
+        };
+    }
 
-            int srcFrom = srcStations.indexOf(source);
-            int srcCC = srcStations.indexOf(civil);
-            addInclusive(route, srcStations, srcFrom, srcCC, false);
+    /**
+     * Prints all stations on each line with a combined numbering system.
+     */
+    private static void displayStations(NetworkSnapshot snapshot) {
+        int counter = 1;
+        for (MetroLine line : snapshot.lines().values()) {
+            String lineName = line.name();
+            List<String> stations = line.stations();
+            System.out.printf("\n=== %s Line (%s → %s) ===%n",
+                    Character.toUpperCase(lineName.charAt(0)) + lineName.substring(1),
+                    stations.get(0), stations.get(stations.size() - 1));
 
-            int destCC = destStations.indexOf(civil);
-            int destTo = destStations.indexOf(destination);
-            addInclusive(route, destStations, destCC, destTo, true);
+            for (int i = 0; i < stations.size(); i++) {
+                System.out.printf("%d. %s%n", counter, stations.get(i));
+                if (snapshot.isInterchange(stations.get(i))) {
+                    System.out.println("   ↳ (Interchange with other lines)");
+                }
+                counter++;
+            }
         }
-
-        return route;
     }
 
     /**
-     * Finds which line a given station belongs to.
+     * Converts a user's station number choice to a station name.
+     *
+     * @param choice The number entered by the user.
+     * @return The corresponding station name, or null if invalid.
      */
-    private static String findLine(String station) {
-        for (Map.Entry<String, List<String>> entry : lineStations.entrySet()) {
-            if (entry.getValue().contains(station)) {
-                return entry.getKey();
-            }
-        }
-        return null;
+    private static String getStationName(NetworkSnapshot snapshot, int choice) {
+        return snapshot.stations().stationAt(choice);
     }
 
     /**
-     * A helper method to add a range of stations from an array to a list,
-     * handling both forward and backward directions.
+     * Works out where a route changes lines. Every hop is ridden on a line
+     * serving both of its stations, staying on the current line while it can;
+     * the stations where the line has to change are the interchanges used.
+     *
+     * @param path The stations of the route, in order.
+     * @return One message per line change, in travel order (empty if none).
      */
-    private static void addInclusive(List<String> out, List<String> arr, int from, int to, boolean skipFirst) {
-        if (from == -1 || to == -1) {
-            return;
-        }
-        if (from <= to) {
-            for (int i = skipFirst ? from + 1 : from; i <= to; i++) {
-                out.add(arr.get(i));
+    private static List<String> lineChanges(NetworkSnapshot snapshot, List<String> path) {
+        List<String> changes = new ArrayList<>();
+        String current = null;
+        for (int i = 0; i + 1 < path.size(); i++) {
+            List<String> here = snapshot.linesAt(path.get(i));
+            List<String> next = snapshot.linesAt(path.get(i + 1));
+            if (current != null && here.contains(current) && next.contains(current)) {
+                continue; // Still on the same line
             }
-        } else {
-            for (int i = skipFirst ? from - 1 : from; i >= to; i--) {
-                out.add(arr.get(i));
+            String hopLine = null;
+            for (String line : here) {
+                if (next.contains(line)) {
+                    hopLine = line;
+                    break;
+                }
+            }
+            if (hopLine == null) {
+                continue; // Not a line hop (e.g. a separate connection)
+            }
+            if (current != null) {
+                changes.add("Change at " + path.get(i) + " to the "
+                        + Character.toUpperCase(hopLine.charAt(0)) + hopLine.substring(1) + " Line");
             }
+            current = hopLine;
         }
+        return changes;
     }
 }
@@ -0,0 +1,41 @@
+package pune;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the metro data text file can't be understood. It says where
+ * the problem is, so the file can be fixed by hand.
+ */
+final class MetroDataFormatException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int line;
+    private final int column;
+
+    /**
+     * @param file The name of the file being read.
+     * @param line The line of the file where the problem is, starting at 1.
+     * @param column The column where the problem is, starting at 1.
+     * @param problem What is wrong.
+     */
+    MetroDataFormatException(String file, int line, int column, String problem) {
+        super(file + ", line " + line + ", column " + column + ": " + problem);
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * @return The line of the file where the problem is, starting at 1.
+     */
+    int line() {
+        return line;
+    }
+
+    /**
+     * @return The column where the problem is, starting at 1.
+     */
+    int column() {
+        return column;
+    }
+}
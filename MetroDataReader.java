@@ -0,0 +1,335 @@
+package pune;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Reads the metro data text file (the format written by MetroDataWriter):
+ * <pre>
+ *   # journal 42                        (optional: the last change journal entry included)
+ *   Purple Line
+ *   PCMC,Sant Tukaram Nagar,...        (the stations, separated by commas)
+ *   1                                   (the distance weight)
+ *   0,10,20,...                         (one row of fares per station)
+ *   ...
+ *                                       (a blank line between lines)
+ * </pre>
+ * The file is read in large chunks and taken apart one character at a time:
+ * numbers are decoded straight into the fare matrix instead of splitting each
+ * row into Strings and parsing those, so a big fare table costs no more than
+ * the matrix itself. Every problem is reported as a MetroDataFormatException
+ * saying on which line and in which column it is.
+ */
+final class MetroDataReader implements Closeable {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+    // Returned by peek at the end of the file.
+    private static final int END = -1;
+
+    private final String fileName;
+    private final Reader in;
+    private final char[] buffer = new char[CHUNK_SIZE];
+    private int position;
+    private int limit;
+    // Where the next character is in the file, for error messages.
+    private int line = 1;
+    private int column = 1;
+    // Reused for the station names of a line.
+    private final StringBuilder text = new StringBuilder();
+
+    private MetroDataReader(String fileName, Reader in) {
+        this.fileName = fileName;
+        this.in = in;
+    }
+
+    /**
+     * Reads every line from a metro data file.
+     *
+     * @param file The file to read.
+     * @param registry The registry that gives the stations their ids; the
+     *                 station lists of the lines use its copies of the names.
+     * @return The lines, in file order.
+     * @throws MetroDataFormatException if the file isn't in the expected format.
+     * @throws IOException if the file can't be read.
+     */
+    static List<MetroLine> read(Path file, StationRegistry registry) throws IOException {
+        // FileReader uses the same character set as the FileWriter that saves the file.
+        try (MetroDataReader reader = new MetroDataReader(file.getFileName().toString(), new FileReader(file.toFile()))) {
+            return reader.readLines(registry);
+        }
+    }
+
+    /**
+     * Reads the number of the last change journal entry included in a metro
+     * data file, from its "# journal N" first line. Only that line is read.
+     *
+     * @param file The file to read.
+     * @return The number, or -1 if the file doesn't start with one (for
+     *         example because it was written by hand).
+     * @throws MetroDataFormatException if the first line starts with "#" but isn't a journal number.
+     * @throws IOException if the file can't be read.
+     */
+    static long journalSequence(Path file) throws IOException {
+        try (MetroDataReader reader = new MetroDataReader(file.getFileName().toString(), new FileReader(file.toFile()))) {
+            return reader.readHeader();
+        }
+    }
+
+    /**
+     * Reads the "# journal N" line if the file starts with one.
+     *
+     * @return N, or -1 if there is no such line.
+     */
+    private long readHeader() throws IOException {
+        if (!skipBlankLines() || peek() != '#') {
+            return -1;
+        }
+        int headerLine = line;
+        String header = restOfLine().substring(1).trim();
+        if (header.startsWith("journal ")) {
+            try {
+                long sequence = Long.parseLong(header.substring("journal ".length()).trim());
+                if (sequence >= 0) {
+                    return sequence;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+        }
+        throw error(headerLine, 1, "expected \"# journal\" and a change number but found \"#" + header + "\"");
+    }
+
+    private List<MetroLine> readLines(StationRegistry registry) throws IOException {
+        List<MetroLine> lines = new ArrayList<>();
+        readHeader();
+        while (skipBlankLines()) {
+            lines.add(readLine(registry));
+        }
+        return lines;
+    }
+
+    /**
+     * Reads one line's block: its name, stations, distance weight and fares.
+     */
+    private MetroLine readLine(StationRegistry registry) throws IOException {
+        int headerLine = line;
+        String header = restOfLine().trim();
+        if (!header.endsWith(" Line")) {
+            throw error(headerLine, 1, "expected the name of a line, such as \"Purple Line\", but found \"" + header + "\"");
+        }
+        String name = header.substring(0, header.lastIndexOf(' ')).toLowerCase();
+
+        List<String> stations = readStations(registry, name);
+        int n = stations.size();
+
+        expectMore("the distance weight of the " + name + " line");
+        int distance = readInt("the distance weight");
+        endOfLine();
+
+        int[][] fares = new int[n][n];
+        for (int i = 0; i < n; i++) {
+            // The messages are only built when something is wrong, so a row costs no allocations.
+            if (peek() == END) {
+                throw error(line, column, "the file ends where the fares from station " + (i + 1)
+                        + " of the " + name + " line should be");
+            }
+            int[] row = fares[i];
+            for (int j = 0; j < n; j++) {
+                if (j > 0) {
+                    if (peek() != ',') {
+                        throw error(line, column, "expected another fare (" + n + " are needed) but found " + describe(peek()));
+                    }
+                    next();
+                }
+                row[j] = readInt("a fare");
+            }
+            endOfLine();
+        }
+        return new MetroLine(name, stations, distance, fares);
+    }
+
+    /**
+     * Reads the comma-separated station names of a line, up to the end of the line.
+     */
+    private List<String> readStations(StationRegistry registry, String lineName) throws IOException {
+        expectMore("the stations of the " + lineName + " line");
+        List<String> stations = new ArrayList<>();
+        while (true) {
+            int startColumn = column;
+            text.setLength(0);
+            int c;
+            while ((c = peek()) != END && c != ',' && c != '\n' && c != '\r') {
+                text.append((char) c);
+                next();
+            }
+            if (text.length() == 0) {
+                throw error(line, startColumn, "expected a station name");
+            }
+            stations.add(registry.canonical(text.toString()));
+            if (c != ',') {
+                break;
+            }
+            next();
+        }
+        endOfLine();
+        return stations;
+    }
+
+    /**
+     * Reads a whole number, which may have spaces around it.
+     */
+    private int readInt(String what) throws IOException {
+        skipSpaces();
+        int startLine = line;
+        int startColumn = column;
+        boolean negative = peek() == '-';
+        if (negative) {
+            next();
+        }
+        int c = peek();
+        if (c < '0' || c > '9') {
+            throw error(startLine, startColumn, "expected " + what + " but found " + describe(c));
+        }
+        // Collected as a negative number, which has room for Integer.MIN_VALUE.
+        // Digits are taken straight from the buffer; none of them ends a line.
+        long value = 0;
+        while (position < limit || peek() != END) {
+            char digit = buffer[position];
+            if (digit < '0' || digit > '9') {
+                break;
+            }
+            value = value * 10 - (digit - '0');
+            if (value < Integer.MIN_VALUE) {
+                throw error(startLine, startColumn, what + " is too large");
+            }
+            position++;
+            column++;
+        }
+        if (!negative) {
+            value = -value;
+            if (value > Integer.MAX_VALUE) {
+                throw error(startLine, startColumn, what + " is too large");
+            }
+        }
+        skipSpaces();
+        return (int) value;
+    }
+
+    /**
+     * Fails if the file ends here; used before anything that must follow.
+     */
+    private void expectMore(String what) throws IOException {
+        if (peek() == END) {
+            throw error(line, column, "the file ends where " + what + " should be");
+        }
+    }
+
+    /**
+     * Moves past the end of the current line, failing if anything but spaces is left on it.
+     */
+    private void endOfLine() throws IOException {
+        skipSpaces();
+        int c = peek();
+        if (c == '\r') {
+            next();
+            c = peek();
+        }
+        if (c == '\n') {
+            next();
+        } else if (c != END) {
+            throw error(line, column, "expected the end of the line but found " + describe(c));
+        }
+    }
+
+    /**
+     * Skips empty lines.
+     *
+     * @return false if the end of the file was reached.
+     */
+    private boolean skipBlankLines() throws IOException {
+        while (true) {
+            skipSpaces();
+            int c = peek();
+            if (c == END) {
+                return false;
+            }
+            if (c != '\r' && c != '\n') {
+                // Start the next block at the beginning of its line.
+                return true;
+            }
+            next();
+        }
+    }
+
+    /**
+     * Returns the rest of the current line and moves past its end.
+     */
+    private String restOfLine() throws IOException {
+        text.setLength(0);
+        int c;
+        while ((c = peek()) != END && c != '\n') {
+            if (c != '\r') {
+                text.append((char) c);
+            }
+            next();
+        }
+        if (c == '\n') {
+            next();
+        }
+        return text.toString();
+    }
+
+    private void skipSpaces() throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\t') {
+            next();
+        }
+    }
+
+    /**
+     * @return The next character without moving past it, or END at the end of the file.
+     */
+    private int peek() throws IOException {
+        if (position == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return END;
+            }
+        }
+        return buffer[position];
+    }
+
+    /**
+     * Moves past the character returned by peek.
+     */
+    private void next() {
+        if (buffer[position++] == '\n') {
+            line++;
+            column = 1;
+        } else {
+            column++;
+        }
+    }
+
+    private static String describe(int c) {
+        if (c == END) {
+            return "the end of the file";
+        }
+        if (c == '\n' || c == '\r') {
+            return "the end of the line";
+        }
+        return "\"" + (char) c + "\"";
+    }
+
+    private MetroDataFormatException error(int line, int column, String problem) {
+        return new MetroDataFormatException(fileName, line, column, problem);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
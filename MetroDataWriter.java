@@ -0,0 +1,61 @@
+package pune;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes lines in the metro data text format read by MetroDataReader: for
+ * each line its name, its stations separated by commas, its distance weight,
+ * one row of fares per station and a blank line. A whole network can start
+ * with a "# journal N" line giving the last change journal entry it includes.
+ */
+final class MetroDataWriter {
+
+    private MetroDataWriter() {
+    }
+
+    /**
+     * Writes a network to a stream, which is flushed but not closed, starting
+     * with the "# journal N" line.
+     *
+     * @param lines The lines, in the order they should appear.
+     * @param journalSequence The number of the last change journal entry the lines include.
+     * @param out The stream.
+     * @throws IOException if the stream can't be written.
+     */
+    static void write(Collection<MetroLine> lines, long journalSequence, OutputStream out) throws IOException {
+        out.write(("# journal " + journalSequence + "\n").getBytes());
+        write(lines, out);
+    }
+
+    /**
+     * Writes some lines to a stream, which is flushed but not closed.
+     *
+     * @param lines The lines, in the order they should appear.
+     * @param out The stream; text uses the default character set, the same one the file is read with.
+     * @throws IOException if the stream can't be written.
+     */
+    static void write(Collection<MetroLine> lines, OutputStream out) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out));
+        for (MetroLine metroLine : lines) {
+            writer.write(metroLine.name() + " Line\n"); // Write line name
+            writer.write(String.join(",", metroLine.stations()) + "\n"); // Write stations as a comma-separated list
+            writer.write(String.valueOf(metroLine.distance()) + "\n"); // Write distance weight
+            // One row at a time, straight from the fare table
+            int n = metroLine.stations().size();
+            StringBuilder fareRow = new StringBuilder();
+            for (int i = 0; i < n; i++) {
+                fareRow.setLength(0);
+                for (int j = 0; j < n; j++) {
+                    fareRow.append(metroLine.fare(i, j));
+                    if (j < n - 1) {
+                        fareRow.append(",");
+                    }
+                }
+                writer.write(fareRow.append('\n').toString()); // Write each row of the fare matrix
+            }
+            writer.write("\n"); // Add a blank line as a separator between line data
+        }
+        writer.flush();
+    }
+}
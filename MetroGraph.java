@@ -2,14 +2,216 @@ package pune;
 
 import java.util.*;
 
-class MetroGraph {
-    // A map to represent the graph's adjacency list. Each key is a station name,
-    // and its value is another map of its neighbors and the distance to each.
-    private final Map<String, Map<String, Integer>> adjList = new HashMap<>();
-    
-    // A separate map to store the fare between stations. The structure is similar
-    // to the adjacency list for easy fare lookup.
-    private final Map<String, Map<String, Integer>> fareMap = new HashMap<>();
+class MetroGraph implements RouteEngine {
+    // Every station gets a dense integer id (0, 1, 2, ...) so the graph itself can be
+    // stored in plain int arrays instead of nested maps keyed by station name. The
+    // registry is shared with every copy of this graph.
+    private final StationRegistry stations;
+    // One more than the highest station id used by this graph; the node count of the
+    // compressed graph. Ids below it that belong to other graphs sharing the registry
+    // are simply stations without connections here.
+    private int nodeCount = 0;
+
+    // Edges added so far, kept as parallel arrays. They are turned into a compact
+    // CsrGraph the first time a route is searched.
+    private int[] edgeFrom = new int[16];
+    private int[] edgeTo = new int[16];
+    private int[] edgeDistance = new int[16];
+    private int[] edgeFare = new int[16];
+    private int edgeCount = 0;
+
+    // Metro lines added with addLine. Their hops between neighbouring stations are
+    // added to the graph, and their fare matrices are used to price line segments.
+    // A line's id is its index in this list.
+    private final List<MetroLine> lines = new ArrayList<>();
+    private final Map<String, Integer> lineIds = new HashMap<>();
+
+    // The compressed graph used by the searches. Adding or replacing a line and
+    // changing a fare patch it (see patchLine); addEdge sets it to null, and it
+    // is then rebuilt by refresh() or lazily on the next lookup.
+    private CsrGraph csr;
+
+    // Increased on every change, so users of the graph can tell when it changed.
+    private long version = 0;
+
+    /**
+     * Creates an empty graph with its own station registry.
+     */
+    public MetroGraph() {
+        this(new StationRegistry());
+    }
+
+    /**
+     * Creates an empty graph whose station ids come from a shared registry.
+     * @param stations The registry assigning station ids.
+     */
+    MetroGraph(StationRegistry stations) {
+        this.stations = stations;
+    }
+
+    /**
+     * Adds a metro line. Only neighbouring stations on the line are connected,
+     * so the number of edges grows linearly with the length of the line. A
+     * station that appears on several lines is a single node, which is how
+     * passengers change lines there. Fares between any two stations on the
+     * line come from the line's fare matrix.
+     * Adding a line with the name of an existing line replaces it, which is how
+     * a station is added to or removed from a line. Only the hops that differ
+     * from the old version of the line are changed in the compressed graph.
+     * @param line The line to add. A line with the same name is replaced.
+     */
+    public void addLine(MetroLine line) {
+        // Make sure every station has an id, even on a line with a single station.
+        for (String station : line.stations()) {
+            stationId(station);
+        }
+        Integer id = lineIds.get(line.name());
+        MetroLine old = null;
+        if (id == null) {
+            id = lines.size();
+            lineIds.put(line.name(), id);
+            lines.add(line);
+        } else {
+            old = lines.set(id, line);
+        }
+        if (csr != null) {
+            csr = patchLine(id, old, line);
+        }
+        version++;
+    }
+
+    /**
+     * Changes the compressed graph for a line that was added or replaced:
+     * hops only the old version had are removed, hops only the new version
+     * has are added, and the hops both have get the new fares. A station
+     * added to or removed from a line therefore changes two or three hops.
+     *
+     * @param id The line id.
+     * @param old The old version of the line, or null if it is new.
+     * @param line The new version.
+     * @return The patched graph, or null if it must be rebuilt instead. That is
+     *         the case when a changed hop is also a hop of another line or an
+     *         edge: which of them is kept depends on the order they were added.
+     */
+    private CsrGraph patchLine(int id, MetroLine old, MetroLine line) {
+        if (old != null && old.distance() != line.distance()) {
+            return null;
+        }
+        CsrGraph.Patch patch = csr.patch();
+        if (old != null && old.stations().equals(line.stations())) {
+            // Only fares changed (for example by updateFare): no hop is added or removed.
+            List<String> stations = line.stations();
+            for (int i = 0; i + 1 < stations.size(); i++) {
+                int u = indexOf(stations.get(i));
+                int v = indexOf(stations.get(i + 1));
+                int arc = arcOf(u, v);
+                if (arc != -1 && csr.lines[arc] == id) {
+                    patch.setFare(u, v, line.fare(i, i + 1));
+                }
+            }
+            return patch.apply(nodeCount);
+        }
+        Set<Long> oldHops = hops(old);
+        Set<Long> newHops = hops(line);
+        for (long hop : oldHops) {
+            if (newHops.contains(hop)) {
+                continue;
+            }
+            int u = (int) (hop >>> 32);
+            int v = (int) hop;
+            int arc = arcOf(u, v);
+            if (arc == -1) {
+                return null;
+            }
+            if (csr.lines[arc] != id) {
+                continue; // Another line's hop is the one in use; it stays.
+            }
+            if (isSharedHop(id, u, v)) {
+                return null;
+            }
+            patch.remove(u, v);
+        }
+        // In line order, so a hop listed twice gets the fare of the last one, as in a rebuild.
+        List<String> stations = line.stations();
+        for (int i = 0; i + 1 < stations.size(); i++) {
+            int u = indexOf(stations.get(i));
+            int v = indexOf(stations.get(i + 1));
+            if (u == v) {
+                return null;
+            }
+            int arc = arcOf(u, v);
+            if (oldHops.contains(hopKey(u, v))) {
+                if (arc == -1) {
+                    return null;
+                }
+                if (csr.lines[arc] == id) {
+                    patch.setFare(u, v, line.fare(i, i + 1));
+                }
+            } else if (arc != -1) {
+                return null;
+            } else {
+                patch.put(u, v, line.distance(), line.fare(i, i + 1), id);
+            }
+        }
+        return patch.apply(nodeCount);
+    }
+
+    /**
+     * @return The arc from u to v in the current compressed graph, or -1 if
+     *         there is none (also when a station is newer than the graph).
+     */
+    private int arcOf(int u, int v) {
+        return u < csr.nodeCount() ? csr.findArc(u, v) : -1;
+    }
+
+    /**
+     * @return The hops between neighbouring stations of a line (none for null), as hopKey values.
+     */
+    private Set<Long> hops(MetroLine line) {
+        Set<Long> hops = new HashSet<>();
+        if (line != null) {
+            List<String> stations = line.stations();
+            for (int i = 0; i + 1 < stations.size(); i++) {
+                hops.add(hopKey(indexOf(stations.get(i)), indexOf(stations.get(i + 1))));
+            }
+        }
+        return hops;
+    }
+
+    /**
+     * @return One long for the hop between two stations, the same in both directions.
+     */
+    private static long hopKey(int u, int v) {
+        return ((long) Math.min(u, v) << 32) | Math.max(u, v);
+    }
+
+    /**
+     * @return true if a line other than the given one, or an edge, also connects the two stations.
+     */
+    private boolean isSharedHop(int id, int u, int v) {
+        String from = nameOf(u);
+        String to = nameOf(v);
+        for (int other = 0; other < lines.size(); other++) {
+            MetroLine line = lines.get(other);
+            if (other == id || line.indexOf(from) == -1 || line.indexOf(to) == -1) {
+                continue;
+            }
+            List<String> stations = line.stations();
+            for (int i = 0; i + 1 < stations.size(); i++) {
+                if ((stations.get(i).equals(from) && stations.get(i + 1).equals(to))
+                        || (stations.get(i).equals(to) && stations.get(i + 1).equals(from))) {
+                    return true;
+                }
+            }
+        }
+        for (int e = 0; e < edgeCount; e++) {
+            if ((edgeFrom[e] == u && edgeTo[e] == v) || (edgeFrom[e] == v && edgeTo[e] == u)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 
     /**
      * Adds a new edge (connection) between two stations. The graph is undirected,
@@ -20,18 +222,88 @@ class MetroGraph {
      * @param fare The fare for this trip segment.
      */
     public void addEdge(String from, String to, int distance, int fare) {
-        // Ensure both stations exist in the adjacency list and fare map.
-        // If they don't, a new empty map is created for them.
-        adjList.putIfAbsent(from, new HashMap<>());
-        adjList.putIfAbsent(to, new HashMap<>());
-        fareMap.putIfAbsent(from, new HashMap<>());
-        fareMap.putIfAbsent(to, new HashMap<>());
+        // Look up (or assign) the integer ids of both stations.
+        int u = stationId(from);
+        int v = stationId(to);
+
+        // Grow the edge arrays when they are full.
+        if (edgeCount == edgeFrom.length) {
+            int capacity = edgeFrom.length * 2;
+            edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+            edgeTo = Arrays.copyOf(edgeTo, capacity);
+            edgeDistance = Arrays.copyOf(edgeDistance, capacity);
+            edgeFare = Arrays.copyOf(edgeFare, capacity);
+        }
 
-        // Add the connection with its distance and fare for both directions.
-        adjList.get(from).put(to, distance);
-        adjList.get(to).put(from, distance);
-        fareMap.get(from).put(to, fare);
-        fareMap.get(to).put(from, fare);
+        // Record the edge once; CsrGraph stores it in both directions.
+        edgeFrom[edgeCount] = u;
+        edgeTo[edgeCount] = v;
+        edgeDistance[edgeCount] = distance;
+        edgeFare[edgeCount] = fare;
+        edgeCount++;
+        csr = null;
+        version++;
+    }
+
+    /**
+     * Makes an independent copy of the graph. Lines are immutable and shared,
+     * and so are the station registry and the compressed graph; a change to
+     * either copy patches a new compressed graph instead of changing the
+     * shared one. Copying costs about as much as the edge arrays.
+     * @return The copy.
+     */
+    public MetroGraph copy() {
+        MetroGraph copy = new MetroGraph(stations);
+        copy.nodeCount = nodeCount;
+        copy.edgeFrom = edgeFrom.clone();
+        copy.edgeTo = edgeTo.clone();
+        copy.edgeDistance = edgeDistance.clone();
+        copy.edgeFare = edgeFare.clone();
+        copy.edgeCount = edgeCount;
+        copy.lines.addAll(lines);
+        copy.lineIds.putAll(lineIds);
+        copy.csr = csr;
+        copy.version = version;
+        return copy;
+    }
+
+    /**
+     * Returns the version of the graph. It changes whenever a line, edge or
+     * fare changes, so anything derived from the graph (such as precomputed
+     * tables) can check whether it is still current.
+     * @return The current version number.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Rebuilds the compressed graph now if lines or edges changed since the
+     * last build. Calling this after an edit means route queries never have
+     * to do any rebuilding themselves.
+     */
+    public void refresh() {
+        graph();
+    }
+
+    /**
+     * @return The first line (in the order added) with both stations, or null if they share no line.
+     */
+    MetroLine lineWith(String from, String to) {
+        int line = commonLine(from, to);
+        return line == -1 ? null : lines.get(line);
+    }
+
+    /**
+     * Returns the metro line both stations are on, or -1 if they share no line.
+     */
+    private int commonLine(String from, String to) {
+        for (int line = 0; line < lines.size(); line++) {
+            if (lines.get(line).indexOf(from) != -1 && lines.get(line).indexOf(to) != -1) {
+                return line;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -39,7 +311,17 @@ class MetroGraph {
      * @return A Set of Strings representing all station names.
      */
     public Set<String> getStations() {
-        return adjList.keySet();
+        // Station ids are never reused, so a station removed from its line keeps
+        // its id; only stations that are still on a line or edge are returned.
+        Set<String> stations = new LinkedHashSet<>();
+        for (MetroLine line : lines) {
+            stations.addAll(line.stations());
+        }
+        for (int e = 0; e < edgeCount; e++) {
+            stations.add(nameOf(edgeFrom[e]));
+            stations.add(nameOf(edgeTo[e]));
+        }
+        return stations;
     }
 
     /**
@@ -49,10 +331,23 @@ class MetroGraph {
      * @return The integer fare, or 0 if the fare is not found.
      */
     public int getFare(String from, String to) {
-        // Safely retrieves the fare. getOrDefault prevents NullPointerException
-        // if a station or fare connection doesn't exist.
-        return fareMap.getOrDefault(from, Collections.emptyMap())
-            .getOrDefault(to, 0);
+        // Two stations on the same line are priced from that line's fare matrix.
+        int line = commonLine(from, to);
+        if (line != -1) {
+            MetroLine metroLine = lines.get(line);
+            return metroLine.fare(metroLine.indexOf(from), metroLine.indexOf(to));
+        }
+
+        // Otherwise use the fare of a direct edge. Unknown stations or stations
+        // without a direct connection have no fare.
+        int u = indexOf(from);
+        int v = indexOf(to);
+        if (u == -1 || v == -1) {
+            return 0;
+        }
+        CsrGraph graph = graph();
+        int arc = graph.findArc(u, v);
+        return arc == -1 ? 0 : graph.fares[arc];
     }
 
     /**
@@ -62,13 +357,41 @@ class MetroGraph {
      * @param newFare The new fare value.
      */
     public void updateFare(String from, String to, int newFare) {
-        // Check if the connection exists before updating the fare in both directions.
-        if (fareMap.containsKey(from) && fareMap.get(from).containsKey(to)) {
-            fareMap.get(from).put(to, newFare);
+        // Stations on the same line: replace the line with one using the new fare.
+        int line = commonLine(from, to);
+        if (line != -1) {
+            MetroLine metroLine = lines.get(line);
+            MetroLine changed = metroLine.withFare(metroLine.indexOf(from), metroLine.indexOf(to), newFare);
+            lines.set(line, changed);
+            // The graph's shape is unchanged. It only stores the fares of hops between
+            // neighbouring stations, so at most the two arcs of one hop get a new fare.
+            if (csr != null) {
+                csr = patchLine(line, metroLine, changed);
+            }
+            version++;
+            return;
+        }
+
+        // Only update the fare if the two stations are already connected.
+        int u = indexOf(from);
+        int v = indexOf(to);
+        if (u == -1 || v == -1) {
+            return;
+        }
+        CsrGraph graph = graph();
+        if (graph.findArc(u, v) == -1) {
+            return;
         }
-        if (fareMap.containsKey(to) && fareMap.get(to).containsKey(from)) {
-            fareMap.get(to).put(from, newFare);
+        // Overwrite the fare of the edge in place, so updates don't add edges. If
+        // the pair was added more than once, the last edge is the one in use.
+        for (int e = edgeCount - 1; e >= 0; e--) {
+            if ((edgeFrom[e] == u && edgeTo[e] == v) || (edgeFrom[e] == v && edgeTo[e] == u)) {
+                edgeFare[e] = newFare;
+                break;
+            }
         }
+        csr = graph.patch().setFare(u, v, newFare).apply(nodeCount);
+        version++;
     }
 
     /**
@@ -80,57 +403,392 @@ class MetroGraph {
      * @return The total distance of the shortest path.
      */
     public int dijkstra(String start, String end, List<String> path) {
-        // Map to store the shortest distance from the start station to every other station.
-        Map<String, Integer> dist = new HashMap<>();
-        
-        // Map to store the "previous" station in the shortest path, used for path reconstruction.
-        Map<String, String> prev = new HashMap<>();
-        
-        // A priority queue to efficiently get the station with the smallest distance.
-        // The comparator ensures it's sorted by the distance value.
-        PriorityQueue<String> pq = new PriorityQueue<>(Comparator.comparingInt(dist::get));
-
-        // Initialize distances: 0 for the start station, infinity for all others.
-        for (String station : adjList.keySet()) {
-            dist.put(station, Integer.MAX_VALUE);
-        }
-        dist.put(start, 0);
-        pq.add(start);
+        return shortestPath(start, end, path, SearchMode.DIJKSTRA, null);
+    }
+
+    /**
+     * Finds the shortest path between a start and end station with the chosen
+     * search algorithm. Both modes return the same distance; they differ in how
+     * many stations they settle on the way.
+     * @param start The starting station.
+     * @param end The destination station.
+     * @param path An empty list that will be populated with the shortest path.
+     * @param mode The search algorithm to use.
+     * @param stats Filled with the statistics of this query, or null if not needed.
+     * @return The total distance of the shortest path.
+     */
+    public int shortestPath(String start, String end, List<String> path, SearchMode mode, QueryStats stats) {
+        long began = System.nanoTime();
+        if (stats != null) {
+            stats.reset();
+            stats.algorithm = mode.name().toLowerCase();
+        }
+        path.clear();
+        int source = indexOf(start);
+        int target = indexOf(end);
+        if (source == -1 || target == -1) {
+            // A station that is not in the graph can't be reached.
+            path.add(end);
+            return Integer.MAX_VALUE;
+        }
+
+        int distance = mode == SearchMode.BIDIRECTIONAL
+                ? bidirectional(source, target, path, stats)
+                : oneDirectional(source, target, path, stats);
+        if (stats != null) {
+            stats.elapsedNanos = System.nanoTime() - began;
+        }
+        return distance;
+    }
+
+    /**
+     * Dijkstra's algorithm from the start station, stopping at the destination.
+     */
+    private int oneDirectional(int source, int target, List<String> path, QueryStats stats) {
+        CsrGraph graph = graph();
+        int n = graph.nodeCount();
+        int settled = 0;
+        int relaxed = 0;
+
+        // Array holding the shortest known distance from the start station to every station.
+        int[] dist = new int[n];
+        Arrays.fill(dist, Integer.MAX_VALUE);
+
+        // Array holding the "previous" station on the shortest path, used for path reconstruction.
+        int[] prev = new int[n];
+        Arrays.fill(prev, -1);
+
+        // An indexed heap to efficiently get the station with the smallest distance.
+        // Each station is in it at most once; relaxations lower its key in place.
+        IndexedMinHeap pq = new IndexedMinHeap(n);
+        dist[source] = 0;
+        pq.insertOrDecrease(source, 0);
 
         // Main loop of Dijkstra's algorithm. Continues until the queue is empty
         // or the destination is reached.
         while (!pq.isEmpty()) {
-            String current = pq.poll(); // Get the station with the smallest distance.
-            if (current.equals(end)) break; // Stop if the destination is reached.
-
-            // Handle cases where a station might not have neighbors.
-            if (adjList.get(current) == null) continue;
+            int current = pq.poll(); // Get the station with the smallest distance.
+            settled++;
+            if (current == target) break; // Stop if the destination is reached.
 
-            // Iterate over all neighbors of the current station.
-            for (Map.Entry<String, Integer> neighbor : adjList.get(current).entrySet()) {
+            // Iterate over all arcs leaving the current station.
+            for (int arc = graph.offsets[current]; arc < graph.offsets[current + 1]; arc++) {
+                relaxed++;
+                int neighbor = graph.targets[arc];
                 // Calculate the new distance through the current station.
-                int newDist = dist.get(current) + neighbor.getValue();
-                
+                int newDist = dist[current] + graph.weights[arc];
+
                 // Relaxation step: If a shorter path to the neighbor is found, update it.
-                if (newDist < dist.get(neighbor.getKey())) {
-                    dist.put(neighbor.getKey(), newDist); // Update the distance.
-                    prev.put(neighbor.getKey(), current);  // Record the path.
-                    pq.add(neighbor.getKey());             // Add the neighbor to the queue.
+                if (newDist < dist[neighbor]) {
+                    dist[neighbor] = newDist; // Update the distance.
+                    prev[neighbor] = current;  // Record the path.
+                    pq.insertOrDecrease(neighbor, newDist); // Add it or lower its key.
                 }
             }
         }
 
         // Path Reconstruction: Build the path by tracing back from the end station.
-        path.clear();
-        String step = end;
-        while (step != null) {
-            path.add(step);
-            step = prev.get(step);
+        for (int step = target; step != -1; step = prev[step]) {
+            path.add(nameOf(step));
         }
         // The path is currently in reverse order, so we reverse it to get start-to-end.
         Collections.reverse(path);
-        
+
+        if (stats != null) {
+            stats.settledNodes = settled;
+            stats.relaxedArcs = relaxed;
+        }
         // Return the final shortest distance to the destination.
-        return dist.get(end);
+        return dist[target];
+    }
+
+    /**
+     * Bidirectional Dijkstra: one search grows from the start station and one
+     * from the destination (the graph is undirected, so both use the same arcs).
+     * The side with the smaller queue takes the next step. Every arc that links
+     * the two searches offers a candidate route; once the two smallest queue
+     * keys add up to at least the best candidate, no shorter route can exist.
+     */
+    private int bidirectional(int source, int target, List<String> path, QueryStats stats) {
+        CsrGraph graph = graph();
+        int n = graph.nodeCount();
+        int settled = 0;
+        int relaxed = 0;
+
+        // Index 0 holds the forward search (from the start), index 1 the backward search.
+        int[][] dist = new int[2][n];
+        int[][] prev = new int[2][n];
+        IndexedMinHeap[] queue = {new IndexedMinHeap(n), new IndexedMinHeap(n)};
+        for (int side = 0; side < 2; side++) {
+            Arrays.fill(dist[side], Integer.MAX_VALUE);
+            Arrays.fill(prev[side], -1);
+        }
+        dist[0][source] = 0;
+        dist[1][target] = 0;
+        queue[0].insertOrDecrease(source, 0);
+        queue[1].insertOrDecrease(target, 0);
+
+        // The shortest route found so far and the station where its two halves meet.
+        int best = source == target ? 0 : Integer.MAX_VALUE;
+        int meeting = source == target ? source : -1;
+
+        while (!queue[0].isEmpty() && !queue[1].isEmpty()) {
+            // Stop when no unsettled station can lead to a shorter route.
+            if ((long) queue[0].peekKey() + queue[1].peekKey() >= best) {
+                break;
+            }
+            int side = queue[0].size() <= queue[1].size() ? 0 : 1;
+            int[] mine = dist[side];
+            int[] other = dist[1 - side];
+            int current = queue[side].poll();
+            settled++;
+
+            for (int arc = graph.offsets[current]; arc < graph.offsets[current + 1]; arc++) {
+                relaxed++;
+                int neighbor = graph.targets[arc];
+                int newDist = mine[current] + graph.weights[arc];
+                if (newDist < mine[neighbor]) {
+                    mine[neighbor] = newDist;
+                    prev[side][neighbor] = current;
+                    queue[side].insertOrDecrease(neighbor, newDist);
+                }
+                // The neighbour has been reached from the other side as well: a candidate route.
+                if (other[neighbor] != Integer.MAX_VALUE && (long) mine[neighbor] + other[neighbor] < best) {
+                    best = mine[neighbor] + other[neighbor];
+                    meeting = neighbor;
+                }
+            }
+        }
+
+        if (meeting == -1) {
+            // The searches never met: same result as dijkstra for an unreachable station.
+            path.add(nameOf(target));
+        } else {
+            // Start -> meeting station from the forward search, then on to the
+            // destination from the backward search.
+            for (int step = meeting; step != -1; step = prev[0][step]) {
+                path.add(nameOf(step));
+            }
+            Collections.reverse(path);
+            for (int step = prev[1][meeting]; step != -1; step = prev[1][step]) {
+                path.add(nameOf(step));
+            }
+        }
+
+        if (stats != null) {
+            stats.settledNodes = settled;
+            stats.relaxedArcs = relaxed;
+        }
+        return best;
+    }
+
+    /**
+     * Returns a route engine that answers queries on this graph with the given
+     * search mode, so the mode can be chosen wherever a RouteEngine is used.
+     * @param mode The search algorithm to use.
+     * @return The engine.
+     */
+    public RouteEngine engine(SearchMode mode) {
+        MetroGraph graph = this;
+        return new RouteEngine() {
+            @Override
+            public int findRoute(String start, String end, List<String> path) {
+                return shortestPath(start, end, path, mode, null);
+            }
+
+            @Override
+            public int findRoute(String start, String end, List<String> path, QueryStats stats) {
+                return shortestPath(start, end, path, mode, stats);
+            }
+
+            @Override
+            public int totalFare(String start, String end, List<String> path) {
+                return graph.totalFare(start, end, path);
+            }
+        };
+    }
+
+    @Override
+    public int findRoute(String start, String end, List<String> path) {
+        return dijkstra(start, end, path);
+    }
+
+    @Override
+    public int findRoute(String start, String end, List<String> path, QueryStats stats) {
+        return shortestPath(start, end, path, SearchMode.DIJKSTRA, stats);
+    }
+
+    @Override
+    public int totalFare(String start, String end, List<String> path) {
+        int[] stations = new int[path.size()];
+        for (int i = 0; i < stations.length; i++) {
+            stations[i] = indexOf(path.get(i));
+        }
+        return routeFare(stations, stations.length);
+    }
+
+    /**
+     * Calculates the fare of a route given as station ids.
+     * @param stations The station ids of the route, in travel order (-1 for unknown stations).
+     * @param count How many entries of the array belong to the route.
+     * @return The total fare of the route.
+     */
+    int routeFare(int[] stations, int count) {
+        CsrGraph graph = graph();
+        int fare = 0;
+        int i = 0;
+        while (i < count - 1) {
+            int u = stations[i];
+            int arc = u == -1 || stations[i + 1] == -1 ? -1 : graph.findArc(u, stations[i + 1]);
+            if (arc == -1) {
+                i++; // Not a real hop; it has no fare.
+            } else if (graph.lines[arc] == -1) {
+                fare += graph.fares[arc]; // A plain edge has its own fare.
+                i++;
+            } else {
+                // Ride the line as far as the route stays on it and pay one fare
+                // from the boarding station to the station where the route leaves it.
+                int line = graph.lines[arc];
+                int board = u;
+                int alight = graph.targets[arc];
+                i++;
+                while (i < count - 1) {
+                    int next = stations[i + 1];
+                    int nextArc = next == -1 ? -1 : graph.findArc(alight, next);
+                    if (nextArc == -1 || graph.lines[nextArc] != line) {
+                        break;
+                    }
+                    alight = next;
+                    i++;
+                }
+                fare += segmentFare(line, board, alight);
+            }
+        }
+        return fare;
+    }
+
+    /**
+     * Looks up the fare of a journey along one line.
+     * @param line The line id (as stored in CsrGraph.lines).
+     * @param from The station id where the passenger boards.
+     * @param to The station id where the passenger leaves the line.
+     * @return The fare from the line's fare matrix.
+     */
+    int segmentFare(int line, int from, int to) {
+        MetroLine metroLine = lines.get(line);
+        return metroLine.fare(metroLine.indexOf(nameOf(from)), metroLine.indexOf(nameOf(to)));
+    }
+
+    /**
+     * @param id The line id (as stored in CsrGraph.lines).
+     * @return The line with that id.
+     */
+    MetroLine line(int id) {
+        return lines.get(id);
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from one station to every other station.
+     * Stations are written to {@code order} in the order they are settled,
+     * so a caller can fill per-station values (like fares) parent-first.
+     * @param source The starting station id.
+     * @param dist Filled with the distance to every station (Integer.MAX_VALUE if unreachable).
+     * @param prev Filled with the previous station on every shortest path (-1 if none).
+     * @param order Filled with the settled stations, nearest first.
+     * @param heap An empty heap sized for this graph; it is empty again afterwards.
+     * @return The number of stations written to {@code order}.
+     */
+    int searchFrom(int source, int[] dist, int[] prev, int[] order, IndexedMinHeap heap) {
+        CsrGraph graph = graph();
+        Arrays.fill(dist, Integer.MAX_VALUE);
+        Arrays.fill(prev, -1);
+        dist[source] = 0;
+        heap.insertOrDecrease(source, 0);
+
+        int settled = 0;
+        while (!heap.isEmpty()) {
+            int current = heap.poll();
+            order[settled++] = current;
+            for (int arc = graph.offsets[current]; arc < graph.offsets[current + 1]; arc++) {
+                int neighbor = graph.targets[arc];
+                int newDist = dist[current] + graph.weights[arc];
+                if (newDist < dist[neighbor]) {
+                    dist[neighbor] = newDist;
+                    prev[neighbor] = current;
+                    heap.insertOrDecrease(neighbor, newDist);
+                }
+            }
+        }
+        return settled;
+    }
+
+    /**
+     * @return The id of a station, or -1 if it isn't in the graph.
+     */
+    int indexOf(String station) {
+        int id = stations.idOf(station);
+        return id < nodeCount ? id : -1;
+    }
+
+    /**
+     * @return The name of the station with the given id.
+     */
+    String nameOf(int id) {
+        return stations.nameOf(id);
+    }
+
+    /**
+     * @return The registry the station ids of this graph come from.
+     */
+    StationRegistry registry() {
+        return stations;
+    }
+
+    /**
+     * Returns the id of a station, registering it if it hasn't been seen before.
+     */
+    private int stationId(String station) {
+        int id = stations.register(station);
+        nodeCount = Math.max(nodeCount, id + 1);
+        return id;
+    }
+
+    /**
+     * Returns the compressed graph, building it first if edges were added since the last build.
+     */
+    CsrGraph graph() {
+        if (csr == null) {
+            // Collect one edge per pair of neighbouring stations on every line,
+            // followed by the edges added with addEdge.
+            int total = edgeCount;
+            for (MetroLine line : lines) {
+                total += Math.max(0, line.stations().size() - 1);
+            }
+            int[] from = new int[total];
+            int[] to = new int[total];
+            int[] distance = new int[total];
+            int[] fare = new int[total];
+            int[] line = new int[total];
+            int e = 0;
+            for (int id = 0; id < lines.size(); id++) {
+                MetroLine metroLine = lines.get(id);
+                List<String> stations = metroLine.stations();
+                for (int i = 0; i + 1 < stations.size(); i++) {
+                    from[e] = indexOf(stations.get(i));
+                    to[e] = indexOf(stations.get(i + 1));
+                    distance[e] = metroLine.distance();
+                    fare[e] = metroLine.fare(i, i + 1);
+                    line[e] = id;
+                    e++;
+                }
+            }
+            System.arraycopy(edgeFrom, 0, from, e, edgeCount);
+            System.arraycopy(edgeTo, 0, to, e, edgeCount);
+            System.arraycopy(edgeDistance, 0, distance, e, edgeCount);
+            System.arraycopy(edgeFare, 0, fare, e, edgeCount);
+            Arrays.fill(line, e, total, -1);
+            csr = CsrGraph.build(nodeCount, from, to, distance, fare, line, total);
+        }
+        return csr;
     }
 }
@@ -0,0 +1,106 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * One metro line: its stations in order, the distance weight of a hop between
+ * two neighbouring stations, and the fare between any two of its stations.
+ * Fares are the same in both directions and are kept in a FareTable. A
+ * MetroLine never changes after it is created; an edit produces a new
+ * MetroLine.
+ */
+final class MetroLine {
+
+    private final String name;
+    private final List<String> stations;
+    private final int distance;
+    private final FareTable fares;
+    // Position of every station on the line, so fare lookups don't need List.indexOf.
+    private final Map<String, Integer> positions = new HashMap<>();
+
+    /**
+     * @param name The line name (e.g. "purple").
+     * @param stations The stations in the order the trains run.
+     * @param distance The distance weight of one hop between neighbouring stations.
+     * @param fares The fare matrix; fares[i][j] is the fare between station i and station j.
+     *              Only one fare per pair is kept (see PackedFareTable.of); entries
+     *              missing from a short matrix count as 0, the same as "no fare found".
+     */
+    MetroLine(String name, List<String> stations, int distance, int[][] fares) {
+        this(name, stations, distance, PackedFareTable.of(fares, stations.size()));
+    }
+
+    /**
+     * @param name The line name.
+     * @param stations The stations in the order the trains run.
+     * @param distance The distance weight of one hop between neighbouring stations.
+     * @param fares The fare table; it must cover all the stations.
+     */
+    MetroLine(String name, List<String> stations, int distance, FareTable fares) {
+        this.name = name;
+        this.stations = List.copyOf(stations);
+        this.distance = distance;
+        this.fares = fares;
+        for (int i = 0; i < this.stations.size(); i++) {
+            positions.putIfAbsent(this.stations.get(i), i);
+        }
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * @return The stations of the line in order (read-only).
+     */
+    List<String> stations() {
+        return stations;
+    }
+
+    int distance() {
+        return distance;
+    }
+
+    /**
+     * @return The position of a station on this line, or -1 if it isn't on it.
+     */
+    int indexOf(String station) {
+        return positions.getOrDefault(station, -1);
+    }
+
+    /**
+     * Looks up a fare in the line's fare table.
+     * @param from The position of the first station.
+     * @param to The position of the second station.
+     * @return The fare, or 0 if the table has no entry for these positions.
+     */
+    int fare(int from, int to) {
+        return fares.fare(from, to);
+    }
+
+    /**
+     * Returns a copy of this line with the fare between two stations changed
+     * in both directions.
+     * @param from The position of the first station.
+     * @param to The position of the second station.
+     * @param newFare The new fare.
+     * @return The updated line.
+     */
+    MetroLine withFare(int from, int to, int newFare) {
+        return new MetroLine(name, stations, distance, fares.withFare(from, to, newFare));
+    }
+
+    /**
+     * @return The table holding this line's fares.
+     */
+    FareTable fareTable() {
+        return fares;
+    }
+
+    /**
+     * @return The fares as a full n x n matrix (a new array each time).
+     */
+    int[][] fares() {
+        return fares.toMatrix();
+    }
+}
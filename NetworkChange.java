@@ -0,0 +1,245 @@
+package pune;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * One admin edit of the network: adding or removing a station, adding a
+ * line, or changing a fare. A change holds only what the admin entered, so
+ * it is small to store, and applyTo turns it into a new snapshot the same
+ * way every time. That is what lets the ChangeJournal keep edits as a list
+ * of changes and replay them when the program starts again.
+ */
+final class NetworkChange {
+
+    enum Kind {
+        ADD_STATION, REMOVE_STATION, ADD_LINE, UPDATE_FARE
+    }
+
+    // Fares given to a new station (see applyTo).
+    private static final int NEIGHBOUR_FARE = 10;
+    private static final int DEFAULT_FARE = 25;
+
+    private final Kind kind;
+    // The line edited, or the source station of a fare update.
+    private final String line;
+    // ADD_STATION, REMOVE_STATION: the station. UPDATE_FARE: the destination station.
+    private final String station;
+    // ADD_STATION: position of the new station (1 = first). ADD_LINE: distance weight. UPDATE_FARE: the fare.
+    private final int number;
+    // ADD_LINE: the stations and the fare matrix.
+    private final List<String> stations;
+    private final int[][] fares;
+
+    private NetworkChange(Kind kind, String line, String station, int number, List<String> stations, int[][] fares) {
+        this.kind = kind;
+        this.line = line;
+        this.station = station;
+        this.number = number;
+        this.stations = stations;
+        this.fares = fares;
+    }
+
+    /**
+     * @param line The line to add the station to.
+     * @param station The new station.
+     * @param position Where it goes on the line: 1 for the first station, size + 1 for the last.
+     */
+    static NetworkChange addStation(String line, String station, int position) {
+        return new NetworkChange(Kind.ADD_STATION, line, station, position, null, null);
+    }
+
+    static NetworkChange removeStation(String line, String station) {
+        return new NetworkChange(Kind.REMOVE_STATION, line, station, 0, null, null);
+    }
+
+    /**
+     * @param fares The fare matrix; only the upper triangle (i < j) is used.
+     */
+    static NetworkChange addLine(String line, List<String> stations, int distance, int[][] fares) {
+        return new NetworkChange(Kind.ADD_LINE, line, null, distance, List.copyOf(stations), fares);
+    }
+
+    static NetworkChange updateFare(String source, String destination, int fare) {
+        return new NetworkChange(Kind.UPDATE_FARE, source, destination, fare, null, null);
+    }
+
+    /**
+     * Applies the change to a network.
+     *
+     * @param snapshot The network before the change.
+     * @return The network after it.
+     * @throws IllegalArgumentException if the change doesn't fit the network
+     *         (for example, the line or station doesn't exist).
+     */
+    NetworkSnapshot applyTo(NetworkSnapshot snapshot) {
+        return switch (kind) {
+            case ADD_STATION -> snapshot.withLine(withStation(existingLine(snapshot)));
+            case REMOVE_STATION -> snapshot.withLine(withoutStation(snapshot, existingLine(snapshot)));
+            case ADD_LINE -> {
+                if (snapshot.line(line) != null) {
+                    throw new IllegalArgumentException("Line already exists: " + line);
+                }
+                yield snapshot.withLine(new MetroLine(line, stations, number, fares));
+            }
+            case UPDATE_FARE -> snapshot.withFare(line, station, number);
+        };
+    }
+
+    private MetroLine existingLine(NetworkSnapshot snapshot) {
+        MetroLine metroLine = snapshot.line(line);
+        if (metroLine == null) {
+            throw new IllegalArgumentException("No such line: " + line);
+        }
+        return metroLine;
+    }
+
+    /**
+     * Inserts the new station and rebuilds the fare matrix with a simple
+     * heuristic: fares to the neighbouring stations are NEIGHBOUR_FARE, other
+     * fares between old stations are kept, and the rest are DEFAULT_FARE.
+     */
+    private MetroLine withStation(MetroLine metroLine) {
+        List<String> newStations = new ArrayList<>(metroLine.stations());
+        if (number < 1 || number > newStations.size() + 1) {
+            throw new IllegalArgumentException("Invalid position " + number + " on the " + line + " line");
+        }
+        newStations.add(number - 1, station);
+
+        int oldSize = newStations.size() - 1;
+        int[][] oldFares = metroLine.fares();
+        int[][] newFares = new int[newStations.size()][newStations.size()];
+        for (int i = 0; i < newStations.size(); i++) {
+            for (int j = 0; j < newStations.size(); j++) {
+                if (i == j) {
+                    newFares[i][j] = 0;
+                } else if (Math.abs(i - j) == 1) {
+                    newFares[i][j] = NEIGHBOUR_FARE;
+                } else {
+                    int oldI = i > number - 1 ? i - 1 : i;
+                    int oldJ = j > number - 1 ? j - 1 : j;
+                    if (oldI < oldSize && oldJ < oldSize) {
+                        newFares[i][j] = oldFares[oldI][oldJ];
+                    } else {
+                        newFares[i][j] = DEFAULT_FARE;
+                    }
+                }
+            }
+        }
+        return new MetroLine(line, newStations, metroLine.distance(), newFares);
+    }
+
+    /**
+     * Removes the station and its row and column of the fare matrix. Lines
+     * keep at least two stations, and interchanges can't be removed.
+     */
+    private MetroLine withoutStation(NetworkSnapshot snapshot, MetroLine metroLine) {
+        List<String> newStations = new ArrayList<>(metroLine.stations());
+        int removed = newStations.indexOf(station);
+        if (removed == -1) {
+            throw new IllegalArgumentException("Station " + station + " is not on the " + line + " line");
+        }
+        if (newStations.size() <= 2) {
+            throw new IllegalArgumentException("The " + line + " line must keep at least two stations");
+        }
+        if (snapshot.isInterchange(station)) {
+            throw new IllegalArgumentException("Station " + station + " is an interchange");
+        }
+        newStations.remove(removed);
+
+        int oldSize = newStations.size() + 1;
+        int[][] oldFares = metroLine.fares();
+        int[][] newFares = new int[newStations.size()][newStations.size()];
+        int newI = 0;
+        for (int i = 0; i < oldSize; i++) {
+            if (i == removed) {
+                continue;
+            }
+            int newJ = 0;
+            for (int j = 0; j < oldSize; j++) {
+                if (j == removed) {
+                    continue;
+                }
+                newFares[newI][newJ] = oldFares[i][j];
+                newJ++;
+            }
+            newI++;
+        }
+        return new MetroLine(line, newStations, metroLine.distance(), newFares);
+    }
+
+    /**
+     * Writes the change in the form read by readFrom.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeByte(kind.ordinal());
+        out.writeUTF(line);
+        switch (kind) {
+            case ADD_STATION, UPDATE_FARE -> {
+                out.writeUTF(station);
+                out.writeInt(number);
+            }
+            case REMOVE_STATION -> out.writeUTF(station);
+            case ADD_LINE -> {
+                out.writeInt(number);
+                out.writeInt(stations.size());
+                for (String name : stations) {
+                    out.writeUTF(name);
+                }
+                // Only the upper triangle: fares are the same in both directions.
+                for (int i = 0; i < stations.size(); i++) {
+                    for (int j = i + 1; j < stations.size(); j++) {
+                        out.writeInt(fares[i][j]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a change written by writeTo.
+     *
+     * @throws IOException if the data can't be read or isn't a change.
+     */
+    static NetworkChange readFrom(DataInput in) throws IOException {
+        int kind = in.readUnsignedByte();
+        if (kind >= Kind.values().length) {
+            throw new IOException("Unknown change type " + kind);
+        }
+        String line = in.readUTF();
+        return switch (Kind.values()[kind]) {
+            case ADD_STATION -> addStation(line, in.readUTF(), in.readInt());
+            case UPDATE_FARE -> updateFare(line, in.readUTF(), in.readInt());
+            case REMOVE_STATION -> removeStation(line, in.readUTF());
+            case ADD_LINE -> {
+                int distance = in.readInt();
+                int n = in.readInt();
+                if (n < 0) {
+                    throw new IOException("Invalid station count " + n);
+                }
+                List<String> names = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    names.add(in.readUTF());
+                }
+                int[][] matrix = new int[n][n];
+                for (int i = 0; i < n; i++) {
+                    for (int j = i + 1; j < n; j++) {
+                        matrix[i][j] = in.readInt();
+                        matrix[j][i] = matrix[i][j];
+                    }
+                }
+                yield addLine(line, names, distance, matrix);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case ADD_STATION -> "add station " + station + " to the " + line + " line at position " + number;
+            case REMOVE_STATION -> "remove station " + station + " from the " + line + " line";
+            case ADD_LINE -> "add the " + line + " line";
+            case UPDATE_FARE -> "set the fare between " + line + " and " + station + " to " + number;
+        };
+    }
+}
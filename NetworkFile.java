@@ -0,0 +1,331 @@
+package pune;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reads and writes the whole network in a binary snapshot file. Loading the
+ * text file means splitting every line and parsing every fare as a string;
+ * the snapshot instead holds the station names once and the fares already
+ * packed the way PackedFareTable keeps them, so loading is a few bulk copies.
+ * The text file stays the format people edit and exchange; the snapshot is
+ * only there to start quickly.
+ *
+ * <p>All numbers are big-endian ints. The file is laid out as:
+ * <pre>
+ *   int magic, int formatVersion, int stationCount, int lineCount,
+ *   int stationTableOffset, int lineDirectoryOffset, long journalSequence (the header)
+ *   (stationCount + 1) x int nameStart, then the UTF-8 names            (the station table)
+ *   lineCount x { int nameOffset, int nameLength, int stationCount,
+ *                 int distance, int width, int cellOffset }             (the line directory)
+ *   per line: the UTF-8 line name, stationCount x int station id,
+ *             and the packed upper triangle of its fares, width bytes per cell
+ * </pre>
+ * Station ids in the file are numbered 0, 1, 2, ... in the order the
+ * stations first appear on the lines, and the name of station id runs from
+ * nameStart[id] to nameStart[id + 1] (relative to the end of the nameStart
+ * table). Every part is found through an offset, so a reader can jump to
+ * any line without reading the ones before it. journalSequence is the
+ * number of the last ChangeJournal record the snapshot includes (version 1
+ * files, written before there was a journal, don't have it).
+ *
+ * <p>A snapshot can also be memory-mapped (see map). Then only the station
+ * and line names are decoded when loading; every fare is read from the
+ * mapped pages when it is asked for, and the operating system pages in just
+ * the parts of the file that are used. Loading time then hardly depends on
+ * the size of the fare tables.
+ */
+final class NetworkFile {
+
+    // Marks a network snapshot file, followed by the format version.
+    private static final int FILE_MAGIC = 0x504D4E31; // "PMN1"
+    private static final int FILE_VERSION = 2;
+    private static final int HEADER_BYTES = 32;
+    private static final int DIRECTORY_ENTRY_BYTES = 24;
+
+    private NetworkFile() {
+    }
+
+    /**
+     * Writes every line of a snapshot to a file, replacing it.
+     *
+     * @param snapshot The network to save.
+     * @param journalSequence The number of the last journal record the network includes.
+     * @param file The file to write.
+     * @throws IOException if the file can't be written, or the network needs more than 2 GB.
+     */
+    static void write(NetworkSnapshot snapshot, long journalSequence, Path file) throws IOException {
+        List<MetroLine> lines = List.copyOf(snapshot.lines().values());
+
+        // Number the stations in order of first appearance.
+        Map<String, Integer> ids = new HashMap<>();
+        List<byte[]> names = new ArrayList<>();
+        for (MetroLine line : lines) {
+            for (String station : line.stations()) {
+                if (ids.putIfAbsent(station, names.size()) == null) {
+                    names.add(station.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        // Work out where everything goes before writing, so the offsets can be written first.
+        long offset = HEADER_BYTES;
+        long stationTableOffset = offset;
+        offset += 4L * (names.size() + 1);
+        for (byte[] name : names) {
+            offset += name.length;
+        }
+        long lineDirectoryOffset = offset;
+        offset += (long) DIRECTORY_ENTRY_BYTES * lines.size();
+        byte[][] lineNames = new byte[lines.size()][];
+        int[] widths = new int[lines.size()];
+        long[] nameOffsets = new long[lines.size()];
+        long[] cellOffsets = new long[lines.size()];
+        for (int l = 0; l < lines.size(); l++) {
+            MetroLine line = lines.get(l);
+            lineNames[l] = line.name().getBytes(StandardCharsets.UTF_8);
+            widths[l] = PackedFareTable.widthOf(line.fareTable());
+            nameOffsets[l] = offset;
+            offset += lineNames[l].length + 4L * line.stations().size();
+            cellOffsets[l] = offset;
+            offset += (long) widths[l] * cellCount(line.fareTable().size());
+        }
+        if (offset > Integer.MAX_VALUE) {
+            throw new IOException("Network too large for one snapshot file: " + offset + " bytes");
+        }
+
+        // Write a new file and then move it over the old one, rather than
+        // overwriting the old file in place: a crash can't leave it half written,
+        // and a running program may still have the old file mapped, where cutting
+        // it short would break its fare lookups.
+        AtomicFile.write(file, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(names.size());
+            out.writeInt(lines.size());
+            out.writeInt((int) stationTableOffset);
+            out.writeInt((int) lineDirectoryOffset);
+            out.writeLong(journalSequence);
+
+            int nameStart = 0;
+            for (byte[] name : names) {
+                out.writeInt(nameStart);
+                nameStart += name.length;
+            }
+            out.writeInt(nameStart);
+            for (byte[] name : names) {
+                out.write(name);
+            }
+
+            for (int l = 0; l < lines.size(); l++) {
+                MetroLine line = lines.get(l);
+                out.writeInt((int) nameOffsets[l]);
+                out.writeInt(lineNames[l].length);
+                out.writeInt(line.stations().size());
+                out.writeInt(line.distance());
+                out.writeInt(widths[l]);
+                out.writeInt((int) cellOffsets[l]);
+            }
+
+            for (int l = 0; l < lines.size(); l++) {
+                MetroLine line = lines.get(l);
+                out.write(lineNames[l]);
+                for (String station : line.stations()) {
+                    out.writeInt(ids.get(station));
+                }
+                FareTable fares = line.fareTable();
+                int size = fares.size();
+                // Row by row through the upper triangle: the same order as PackedFareTable's cells.
+                for (int i = 0; i < size; i++) {
+                    for (int j = i + 1; j < size; j++) {
+                        int fare = fares.fare(i, j);
+                        switch (widths[l]) {
+                            case 1 -> out.writeByte(fare);
+                            case 2 -> out.writeShort(fare);
+                            default -> out.writeInt(fare);
+                        }
+                    }
+                }
+            }
+            out.flush();
+        });
+    }
+
+    /**
+     * Reads the lines from a snapshot file written by write.
+     *
+     * @param file The file to read.
+     * @param registry The registry that gives the stations their ids; the
+     *                 station lists of the lines use its copies of the names.
+     * @return The lines, in display order.
+     * @throws IOException if the file can't be read or isn't a valid snapshot.
+     */
+    static List<MetroLine> read(Path file, StationRegistry registry) throws IOException {
+        return read(file, ByteBuffer.wrap(Files.readAllBytes(file)), registry, false);
+    }
+
+    /**
+     * Maps a snapshot file written by write into memory and returns its lines.
+     * The fare tables of the lines read straight from the mapped file, so
+     * nothing but the names is copied. The mapping stays valid after the file
+     * is replaced by a later write.
+     *
+     * @param file The file to map.
+     * @param registry The registry that gives the stations their ids.
+     * @return The lines, in display order.
+     * @throws IOException if the file can't be mapped or isn't a valid snapshot.
+     */
+    static List<MetroLine> map(Path file, StationRegistry registry) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping outlives the channel.
+            return read(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), registry, true);
+        }
+    }
+
+    private static List<MetroLine> read(Path file, ByteBuffer data, StationRegistry registry, boolean mapped)
+            throws IOException {
+        try {
+            return read(data, registry, mapped);
+        } catch (IndexOutOfBoundsException | BufferUnderflowException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            // An offset or count pointing outside the file: it was cut short or damaged.
+            throw new IOException("Damaged snapshot file " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static List<MetroLine> read(ByteBuffer data, StationRegistry registry, boolean mapped) throws IOException {
+        if (data.capacity() < HEADER_BYTES || data.getInt(0) != FILE_MAGIC) {
+            throw new IOException("Not a network snapshot file");
+        }
+        // Version 1 only lacks the journal sequence; everything is found through offsets.
+        if (data.getInt(4) != FILE_VERSION && data.getInt(4) != 1) {
+            throw new IOException("Unsupported snapshot format version " + data.getInt(4));
+        }
+        int stationCount = data.getInt(8);
+        int lineCount = data.getInt(12);
+        int stationTableOffset = data.getInt(16);
+        int lineDirectoryOffset = data.getInt(20);
+
+        // Station names, as the registry's copies, by file id.
+        String[] stations = new String[stationCount];
+        int namesOffset = stationTableOffset + 4 * (stationCount + 1);
+        for (int id = 0; id < stationCount; id++) {
+            int start = data.getInt(stationTableOffset + 4 * id);
+            int end = data.getInt(stationTableOffset + 4 * (id + 1));
+            stations[id] = registry.canonical(decode(data, namesOffset + start, end - start));
+        }
+
+        List<MetroLine> lines = new ArrayList<>(lineCount);
+        for (int l = 0; l < lineCount; l++) {
+            int entry = lineDirectoryOffset + DIRECTORY_ENTRY_BYTES * l;
+            int nameOffset = data.getInt(entry);
+            int nameLength = data.getInt(entry + 4);
+            int size = data.getInt(entry + 8);
+            int distance = data.getInt(entry + 12);
+            int width = data.getInt(entry + 16);
+            int cellOffset = data.getInt(entry + 20);
+
+            String name = decode(data, nameOffset, nameLength);
+            List<String> lineStations = new ArrayList<>(size);
+            int idsOffset = nameOffset + nameLength;
+            for (int i = 0; i < size; i++) {
+                lineStations.add(stations[data.getInt(idsOffset + 4 * i)]);
+            }
+            if (width != 1 && width != 2 && width != 4) {
+                throw new IOException("Invalid fare cell width " + width + " for line " + name);
+            }
+            // Check once that all cells are inside the file, so no later lookup can fail.
+            if (cellOffset < 0 || (long) cellOffset + (long) width * cellCount(size) > data.capacity()) {
+                throw new IOException("Fares of line " + name + " extend past the end of the file");
+            }
+            FareTable fares = mapped ? new MappedFares(data, cellOffset, size, width)
+                    : PackedFareTable.read(data, cellOffset, size, width);
+            lines.add(new MetroLine(name, lineStations, distance, fares));
+        }
+        return lines;
+    }
+
+    /**
+     * Reads the number of the last journal record a snapshot file includes.
+     *
+     * @param file A snapshot file written by write.
+     * @return The sequence number; 0 for a file written before there was a journal.
+     * @throws IOException if the file can't be read or isn't a snapshot.
+     */
+    static long journalSequence(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a network snapshot file");
+            }
+            if (in.readInt() == 1) {
+                return 0;
+            }
+            in.skipNBytes(16);
+            return in.readLong();
+        }
+    }
+
+    private static String decode(ByteBuffer data, int offset, int length) {
+        byte[] bytes = new byte[length];
+        data.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int cellCount(int size) {
+        return size * (size - 1) / 2;
+    }
+
+    /**
+     * One line's fares, read from a mapped snapshot file.
+     */
+    private static final class MappedFares implements FareTable {
+        private final ByteBuffer data;
+        private final int cellOffset;
+        private final int size;
+        private final int width;
+
+        MappedFares(ByteBuffer data, int cellOffset, int size, int width) {
+            this.data = data;
+            this.cellOffset = cellOffset;
+            this.size = size;
+            this.width = width;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int fare(int from, int to) {
+            if (from < 0 || to < 0 || from >= size || to >= size || from == to) {
+                return 0;
+            }
+            int i = Math.min(from, to);
+            int j = Math.max(from, to);
+            // Same cell order as PackedFareTable.
+            int at = cellOffset + width * (i * (2 * size - i - 1) / 2 + (j - i - 1));
+            return switch (width) {
+                case 1 -> data.get(at) & 0xFF;
+                case 2 -> data.getShort(at) & 0xFFFF;
+                default -> data.getInt(at);
+            };
+        }
+
+        /**
+         * The mapped file can't change, so the edited table is a new PackedFareTable on the heap.
+         */
+        @Override
+        public FareTable withFare(int from, int to, int newFare) {
+            return PackedFareTable.read(data, cellOffset, size, width).withFare(from, to, newFare);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * An immutable view of the whole metro network at one point in time: every
+ * line with its stations, distance weight and fares, plus the route graph
+ * built from them. Admin edits never change a snapshot; they create a new
+ * one, which is then published in a single step. A reader that holds a
+ * snapshot therefore always sees a complete, consistent network, even while
+ * an edit is being made on another thread.
+ *
+ * A snapshot also has a StationIndex of where every station is. Any station
+ * on two or more lines is an interchange; nothing about interchanges is
+ * hard-coded.
+ *
+ * Snapshots derived from one another share a StationRegistry, whose ids are
+ * never reused, so a removed station keeps its id as an unconnected node.
+ * Everything sized by the node count (search arrays, engine tables) would
+ * then grow with every station ever added. Once more than half of the ids
+ * belong to such stations, the next snapshot is built again from its lines
+ * with a new registry, so ids stay close to the number of stations in use.
+ */
+final class NetworkSnapshot {
+
+    // Fewer unused ids than this are never worth renumbering the stations for.
+    private static final int MIN_UNUSED_IDS = 64;
+
+    private final long version;
+    // Lines in display order, keyed by line name (read-only).
+    private final Map<String, MetroLine> lines;
+    // Built for exactly these lines and never changed after the snapshot is created.
+    private final MetroGraph graph;
+    // Lines and positions of every station, and the station behind every display number.
+    private final StationIndex stations;
+
+    private NetworkSnapshot(long version, Map<String, MetroLine> lines, MetroGraph graph, StationIndex stations) {
+        this.version = version;
+        this.lines = Collections.unmodifiableMap(lines);
+        this.graph = graph;
+        // Build the compressed graph now, so readers never have to.
+        graph.refresh();
+        this.stations = stations;
+    }
+
+    /**
+     * Creates the first snapshot of a network.
+     * @param lines The metro lines, in display order.
+     * @return A snapshot with version 0.
+     */
+    static NetworkSnapshot of(Collection<MetroLine> lines) {
+        return of(new StationRegistry(), lines);
+    }
+
+    /**
+     * Creates the first snapshot of a network whose station ids come from a
+     * given registry. All later snapshots derived from it share the registry.
+     * @param registry The station registry.
+     * @param lines The metro lines, in display order.
+     * @return A snapshot with version 0.
+     */
+    static NetworkSnapshot of(StationRegistry registry, Collection<MetroLine> lines) {
+        return build(0, registry, lines);
+    }
+
+    private static NetworkSnapshot build(long version, StationRegistry registry, Collection<MetroLine> lines) {
+        Map<String, MetroLine> byName = new LinkedHashMap<>();
+        MetroGraph graph = new MetroGraph(registry);
+        for (MetroLine line : lines) {
+            byName.put(line.name(), line);
+            graph.addLine(line);
+        }
+        return new NetworkSnapshot(version, byName, graph, StationIndex.of(registry, byName.values()));
+    }
+
+    /**
+     * @return The version of this snapshot; every edit increases it by one.
+     */
+    long version() {
+        return version;
+    }
+
+    /**
+     * @return All lines in display order, keyed by name (read-only).
+     */
+    Map<String, MetroLine> lines() {
+        return lines;
+    }
+
+    /**
+     * @return The line with the given name, or null if there is none.
+     */
+    MetroLine line(String name) {
+        return lines.get(name);
+    }
+
+    /**
+     * @return The names of the lines serving a station, in display order
+     *         (empty if the station isn't on any line).
+     */
+    List<String> linesAt(String station) {
+        List<String> names = new ArrayList<>(2);
+        for (StationIndex.Stop stop : stations.stopsAt(station)) {
+            names.add(stop.line);
+        }
+        return names;
+    }
+
+    /**
+     * @return True if the station is on two or more lines, so passengers can change lines there.
+     */
+    boolean isInterchange(String station) {
+        return stations.stopsAt(station).size() >= 2;
+    }
+
+    /**
+     * @return The registry giving every station of this network its id.
+     */
+    StationRegistry registry() {
+        return graph.registry();
+    }
+
+    /**
+     * @return The index of where every station is.
+     */
+    StationIndex stations() {
+        return stations;
+    }
+
+    /**
+     * @return The route graph for this snapshot. It must not be changed.
+     */
+    MetroGraph graph() {
+        return graph;
+    }
+
+    /**
+     * Returns a new snapshot in which one line is added or replaced. Only the
+     * changed line is new; all other lines are shared with this snapshot.
+     * @param line The new or changed line.
+     * @return The new snapshot.
+     */
+    NetworkSnapshot withLine(MetroLine line) {
+        Map<String, MetroLine> next = new LinkedHashMap<>(lines);
+        next.put(line.name(), line);
+        // The copy shares the station registry, so the line's stations are
+        // registered before the index below looks them up.
+        MetroGraph nextGraph = graph.copy();
+        nextGraph.addLine(line);
+        StationIndex nextStations = stations.withLine(line);
+        int unused = registry().size() - nextStations.stationCount();
+        if (unused >= MIN_UNUSED_IDS && unused > nextStations.stationCount()) {
+            // Renumber the stations that are still in use (see the class comment).
+            return build(version + 1, new StationRegistry(), next.values());
+        }
+        return new NetworkSnapshot(version + 1, next, nextGraph, nextStations);
+    }
+
+    /**
+     * Returns a new snapshot in which the fare between two stations is
+     * changed on the first line (in display order) that has both. The route
+     * graph is patched with MetroGraph.updateFare rather than given the whole
+     * line again.
+     * @param from The first station.
+     * @param to The second station.
+     * @param fare The new fare.
+     * @return The new snapshot.
+     * @throws IllegalArgumentException if no line has both stations.
+     */
+    NetworkSnapshot withFare(String from, String to, int fare) {
+        if (graph.lineWith(from, to) == null) {
+            throw new IllegalArgumentException("No line has both " + from + " and " + to);
+        }
+        MetroGraph nextGraph = graph.copy();
+        nextGraph.updateFare(from, to, fare);
+        MetroLine line = nextGraph.lineWith(from, to);
+        Map<String, MetroLine> next = new LinkedHashMap<>(lines);
+        next.put(line.name(), line);
+        return new NetworkSnapshot(version + 1, next, nextGraph, stations.withLine(line));
+    }
+}
@@ -0,0 +1,210 @@
+package pune;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+
+/**
+ * Keeps the fare tables and distance weights of many lines in one block of
+ * memory outside the Java heap. For a network of many cities the fare arrays
+ * are most of the heap; stored here they are a single object the garbage
+ * collector never has to scan or move, however many lines there are.
+ *
+ * <p>The block is one direct ByteBuffer laid out as:
+ * <pre>
+ *   int lineCount
+ *   lineCount x { int cellOffset, int size, int width, int distance }   (the directory)
+ *   the packed upper triangle of every line's fares, width bytes per cell
+ * </pre>
+ * Cells are packed the same way as in PackedFareTable. The store never
+ * changes after it is built; editing a fare gives the line a table on the
+ * heap again (see View.withFare).
+ */
+final class OffHeapFareStore {
+
+    private static final int HEADER_BYTES = 4;
+    private static final int DIRECTORY_ENTRY_BYTES = 16;
+
+    private final ByteBuffer memory;
+    private final int lineCount;
+
+    private OffHeapFareStore(ByteBuffer memory) {
+        this.memory = memory;
+        this.lineCount = memory.getInt(0);
+    }
+
+    /**
+     * Copies the fares and distance weights of some lines into a new store.
+     *
+     * @param lines The lines; their order gives the line numbers used by the store.
+     * @return The store.
+     * @throws IllegalArgumentException if the tables don't fit in one 2 GB block.
+     */
+    static OffHeapFareStore of(List<MetroLine> lines) {
+        long total = HEADER_BYTES + (long) DIRECTORY_ENTRY_BYTES * lines.size();
+        int[] widths = new int[lines.size()];
+        for (int l = 0; l < lines.size(); l++) {
+            FareTable table = lines.get(l).fareTable();
+            widths[l] = PackedFareTable.widthOf(table);
+            total += (long) widths[l] * cellCount(table.size());
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Fare tables too large for one off-heap block: " + total + " bytes");
+        }
+
+        ByteBuffer memory = ByteBuffer.allocateDirect((int) total).order(ByteOrder.nativeOrder());
+        memory.putInt(0, lines.size());
+        int cellOffset = HEADER_BYTES + DIRECTORY_ENTRY_BYTES * lines.size();
+        for (int l = 0; l < lines.size(); l++) {
+            MetroLine line = lines.get(l);
+            FareTable table = line.fareTable();
+            int size = table.size();
+            int entry = HEADER_BYTES + DIRECTORY_ENTRY_BYTES * l;
+            memory.putInt(entry, cellOffset);
+            memory.putInt(entry + 4, size);
+            memory.putInt(entry + 8, widths[l]);
+            memory.putInt(entry + 12, line.distance());
+            for (int i = 0; i < size; i++) {
+                for (int j = i + 1; j < size; j++) {
+                    int at = cellOffset + widths[l] * index(size, i, j);
+                    int fare = table.fare(i, j);
+                    switch (widths[l]) {
+                        case 1 -> memory.put(at, (byte) fare);
+                        case 2 -> memory.putShort(at, (short) fare);
+                        default -> memory.putInt(at, fare);
+                    }
+                }
+            }
+            cellOffset += widths[l] * cellCount(size);
+        }
+        return new OffHeapFareStore(memory);
+    }
+
+    /**
+     * Returns copies of some lines whose fares are read from a new off-heap
+     * store holding all of them.
+     *
+     * @param lines The lines, in display order.
+     * @return The same lines, in the same order, backed by the store.
+     */
+    static List<MetroLine> moveOffHeap(Collection<MetroLine> lines) {
+        List<MetroLine> input = List.copyOf(lines);
+        OffHeapFareStore store = of(input);
+        List<MetroLine> moved = new ArrayList<>(input.size());
+        for (int l = 0; l < input.size(); l++) {
+            MetroLine line = input.get(l);
+            moved.add(new MetroLine(line.name(), line.stations(), store.distance(l), store.table(l)));
+        }
+        return moved;
+    }
+
+    /**
+     * @return The number of lines in the store.
+     */
+    int lineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return The number of stations of a line, or 0 for an unknown line.
+     */
+    int size(int line) {
+        return line < 0 || line >= lineCount ? 0 : memory.getInt(entry(line) + 4);
+    }
+
+    /**
+     * @return The distance weight of a line, or 0 for an unknown line.
+     */
+    int distance(int line) {
+        return line < 0 || line >= lineCount ? 0 : memory.getInt(entry(line) + 12);
+    }
+
+    /**
+     * Looks up a fare. Like MetroGraph.getFare, anything that can't be found
+     * (an unknown line, a position off the line, or the same station twice)
+     * has a fare of 0.
+     *
+     * @param line The line number.
+     * @param from The position of the first station on the line.
+     * @param to The position of the second station on the line.
+     * @return The fare.
+     */
+    int fare(int line, int from, int to) {
+        if (line < 0 || line >= lineCount) {
+            return 0;
+        }
+        int entry = entry(line);
+        int size = memory.getInt(entry + 4);
+        if (from < 0 || to < 0 || from >= size || to >= size || from == to) {
+            return 0;
+        }
+        int width = memory.getInt(entry + 8);
+        int at = memory.getInt(entry) + width * (from < to ? index(size, from, to) : index(size, to, from));
+        return switch (width) {
+            case 1 -> memory.get(at) & 0xFF;
+            case 2 -> memory.getShort(at) & 0xFFFF;
+            default -> memory.getInt(at);
+        };
+    }
+
+    /**
+     * @return A FareTable view of one line's fares.
+     */
+    FareTable table(int line) {
+        if (line < 0 || line >= lineCount) {
+            throw new IndexOutOfBoundsException("No line " + line + " in the store");
+        }
+        return new View(line);
+    }
+
+    /**
+     * @return The size of the off-heap block in bytes.
+     */
+    int bytes() {
+        return memory.capacity();
+    }
+
+    private static int entry(int line) {
+        return HEADER_BYTES + DIRECTORY_ENTRY_BYTES * line;
+    }
+
+    /**
+     * @return The position of cell (i, j), i < j, in a line's flat upper triangle.
+     */
+    private static int index(int size, int i, int j) {
+        return i * (2 * size - i - 1) / 2 + (j - i - 1);
+    }
+
+    private static int cellCount(int size) {
+        return size * (size - 1) / 2;
+    }
+
+    /**
+     * One line's fares, read from the store.
+     */
+    private final class View implements FareTable {
+        private final int line;
+
+        View(int line) {
+            this.line = line;
+        }
+
+        @Override
+        public int size() {
+            return OffHeapFareStore.this.size(line);
+        }
+
+        @Override
+        public int fare(int from, int to) {
+            return OffHeapFareStore.this.fare(line, from, to);
+        }
+
+        /**
+         * The store can't change, so the edited table is a new PackedFareTable on the heap.
+         */
+        @Override
+        public FareTable withFare(int from, int to, int newFare) {
+            return PackedFareTable.of(toMatrix(), size()).withFare(from, to, newFare);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package pune;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The fare matrix of one line, stored compactly. Fares are the same in both
+ * directions and zero from a station to itself, so only the upper triangle
+ * (from < to) is kept, as one flat array. Each cell is as narrow as the
+ * largest fare allows: one byte for fares up to 255, two bytes up to 65535,
+ * and four bytes otherwise. A line of n stations therefore needs about
+ * n * n / 2 bytes instead of n * n * 4, plus one array object instead of n + 1.
+ *
+ * A PackedFareTable never changes after it is created; withFare returns an
+ * updated copy, just like MetroLine.withFare.
+ */
+final class PackedFareTable implements FareTable {
+
+    private final int size;
+    // Bytes per cell: 1, 2 or 4. Exactly one of the arrays below is used.
+    private final int width;
+    private final byte[] bytes;
+    private final short[] shorts;
+    private final int[] ints;
+
+    private PackedFareTable(int size, int width) {
+        this.size = size;
+        this.width = width;
+        int cells = size * (size - 1) / 2;
+        this.bytes = width == 1 ? new byte[cells] : null;
+        this.shorts = width == 2 ? new short[cells] : null;
+        this.ints = width == 4 ? new int[cells] : null;
+    }
+
+    /**
+     * Packs a fare matrix. For every pair of stations the fare in the upper
+     * triangle is used; if it is missing (0), the one in the lower triangle is
+     * used instead. Rows or columns missing from a short matrix count as 0.
+     *
+     * @param fares The fare matrix; fares[i][j] is the fare from station i to station j.
+     * @param size The number of stations on the line.
+     * @return The packed table.
+     */
+    static PackedFareTable of(int[][] fares, int size) {
+        int[] cells = new int[size * (size - 1) / 2];
+        int largest = 0;
+        boolean negative = false;
+        for (int i = 0; i < size; i++) {
+            for (int j = i + 1; j < size; j++) {
+                int fare = cell(fares, i, j);
+                if (fare == 0) {
+                    fare = cell(fares, j, i);
+                }
+                cells[index(size, i, j)] = fare;
+                largest = Math.max(largest, fare);
+                negative |= fare < 0;
+            }
+        }
+        PackedFareTable table = new PackedFareTable(size, negative ? 4 : widthFor(largest));
+        for (int c = 0; c < cells.length; c++) {
+            table.put(c, cells[c]);
+        }
+        return table;
+    }
+
+    /**
+     * Copies packed cells, laid out as this class keeps them (row by row
+     * through the upper triangle, big-endian), out of a buffer such as a
+     * snapshot file.
+     *
+     * @param buffer The buffer holding the cells.
+     * @param offset The position of the first cell in the buffer.
+     * @param size The number of stations on the line.
+     * @param width The bytes per cell: 1, 2 or 4.
+     * @return The table.
+     * @throws IllegalArgumentException if the width isn't 1, 2 or 4.
+     */
+    static PackedFareTable read(ByteBuffer buffer, int offset, int size, int width) {
+        if (width != 1 && width != 2 && width != 4) {
+            throw new IllegalArgumentException("Invalid fare cell width " + width);
+        }
+        PackedFareTable table = new PackedFareTable(size, width);
+        ByteBuffer cells = buffer.duplicate().position(offset);
+        if (width == 1) {
+            cells.get(table.bytes);
+        } else if (width == 2) {
+            cells.asShortBuffer().get(table.shorts);
+        } else {
+            cells.asIntBuffer().get(table.ints);
+        }
+        return table;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The number of bytes used per fare (1, 2 or 4).
+     */
+    int width() {
+        return width;
+    }
+
+    @Override
+    public int fare(int from, int to) {
+        if (from < 0 || to < 0 || from >= size || to >= size || from == to) {
+            return 0;
+        }
+        return get(from < to ? index(size, from, to) : index(size, to, from));
+    }
+
+    /**
+     * Returns a copy with the fare between two stations changed (in both
+     * directions). The copy uses wider cells if the new fare needs them.
+     */
+    @Override
+    public PackedFareTable withFare(int from, int to, int newFare) {
+        if (from < 0 || to < 0 || from >= size || to >= size) {
+            throw new IndexOutOfBoundsException("Station position out of range: " + from + ", " + to);
+        }
+        int needed = newFare < 0 ? 4 : widthFor(newFare);
+        PackedFareTable copy = new PackedFareTable(size, Math.max(width, needed));
+        if (copy.width == width) {
+            if (bytes != null) {
+                System.arraycopy(bytes, 0, copy.bytes, 0, bytes.length);
+            } else if (shorts != null) {
+                System.arraycopy(shorts, 0, copy.shorts, 0, shorts.length);
+            } else {
+                System.arraycopy(ints, 0, copy.ints, 0, ints.length);
+            }
+        } else {
+            for (int c = 0; c < size * (size - 1) / 2; c++) {
+                copy.put(c, get(c));
+            }
+        }
+        if (from != to) {
+            copy.put(from < to ? index(size, from, to) : index(size, to, from), newFare);
+        }
+        return copy;
+    }
+
+    @Override
+    public int[][] toMatrix() {
+        int[][] matrix = new int[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = i + 1; j < size; j++) {
+                int fare = get(index(size, i, j));
+                matrix[i][j] = fare;
+                matrix[j][i] = fare;
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * @return The position of cell (i, j), i < j, in the flat upper triangle.
+     */
+    private static int index(int size, int i, int j) {
+        // Rows 0..i-1 hold (size - 1) + (size - 2) + ... + (size - i) cells.
+        return i * (2 * size - i - 1) / 2 + (j - i - 1);
+    }
+
+    /**
+     * @return The bytes per cell needed for fares up to the given value (1, 2 or 4).
+     */
+    static int widthFor(int largest) {
+        if (largest <= 0xFF) {
+            return 1;
+        }
+        return largest <= 0xFFFF ? 2 : 4;
+    }
+
+    /**
+     * @return The bytes per cell needed for all fares of a table.
+     */
+    static int widthOf(FareTable table) {
+        if (table instanceof PackedFareTable packed) {
+            return packed.width;
+        }
+        int largest = 0;
+        for (int i = 0; i < table.size(); i++) {
+            for (int j = i + 1; j < table.size(); j++) {
+                int fare = table.fare(i, j);
+                if (fare < 0) {
+                    return 4;
+                }
+                largest = Math.max(largest, fare);
+            }
+        }
+        return widthFor(largest);
+    }
+
+    private static int cell(int[][] fares, int i, int j) {
+        return i < fares.length && j < fares[i].length ? fares[i][j] : 0;
+    }
+
+    private int get(int c) {
+        if (bytes != null) {
+            return bytes[c] & 0xFF;
+        }
+        if (shorts != null) {
+            return shorts[c] & 0xFFFF;
+        }
+        return ints[c];
+    }
+
+    private void put(int c, int fare) {
+        if (bytes != null) {
+            bytes[c] = (byte) fare;
+        } else if (shorts != null) {
+            shorts[c] = (short) fare;
+        } else {
+            ints[c] = fare;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PackedFareTable[%d stations, %d-byte cells]", size, width);
+    }
+}
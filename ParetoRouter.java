@@ -0,0 +1,387 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * Finds every route between two stations that is worth offering on distance,
+ * fare and number of line changes: the Pareto set. A route is in the set if
+ * no other route is at least as good on all three and better on one.
+ *
+ * <p>A plain Dijkstra keeps one distance per station. This search keeps
+ * "bags" of labels instead, one label for every way of reaching a station
+ * that is not beaten by another. Fares are charged per ride (boarding station
+ * to alighting station on one line), so a label also remembers the line it is
+ * riding and where it boarded. There is one bag per (station, line), and a
+ * label only beats another in its bag if it stays ahead on fare wherever the
+ * ride ends: its fare so far plus the largest extra the line's fare matrix can
+ * charge for its boarding station instead of the other one must not be more
+ * than the other label's fare so far. That extra is worked out only for the
+ * pairs of boarding stations a search actually compares.
+ *
+ * <p>Before the label search, one Dijkstra from the destination gives the
+ * exact remaining distance from every station. Labels are taken from the
+ * queue in order of distance so far plus remaining distance (like A*), so
+ * routes to the destination are found early, and any label whose best
+ * possible totals are already beaten by a finished route is dropped.
+ *
+ * <p>Labels are stored as parallel int arrays (one entry per label) rather
+ * than objects, so a search on a large network creates only a handful of
+ * arrays that grow by doubling.
+ */
+final class ParetoRouter {
+
+    /**
+     * One route of the Pareto set.
+     */
+    static final class Option {
+        final List<String> path;
+        final int distance;
+        final int fare;
+        final int transfers;
+
+        Option(List<String> path, int distance, int fare, int transfers) {
+            this.path = List.copyOf(path);
+            this.distance = distance;
+            this.fare = fare;
+            this.transfers = transfers;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (distance %d, fare %d, %d changes)",
+                    String.join(" -> ", path), distance, fare, transfers);
+        }
+    }
+
+    // Returned by pruneBag when the new label isn't needed.
+    private static final int BEATEN = -2;
+    // An entry of the extra table that hasn't been computed yet. Real entries are
+    // differences of two fares, so they are never this small.
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private final MetroGraph metro;
+    private final CsrGraph graph;
+    // Position of the target of every arc on the arc's line (-1 for plain edges).
+    private final int[] arcPosition;
+    // extra[line][a][b] is the most that boarding the line at position a can cost
+    // more than boarding at position b, over every station where the ride may end.
+    // Filled in lazily: a row is only allocated for a boarding position that a
+    // search compares, and only the entries it compares are computed (UNKNOWN
+    // marks the others), so a long line doesn't cost a full table up front.
+    private final int[][][] extra;
+
+    // Label storage, one entry per label. A label is one way of reaching a station.
+    private int[] station = new int[64];
+    // The line being ridden (CsrGraph.lines id), or -1 when not on a line.
+    private int[] line = new int[64];
+    // Position on the line where the current ride began, and of the current station (-1 when not on a line).
+    private int[] board = new int[64];
+    private int[] at = new int[64];
+    private int[] distance = new int[64];
+    // Fare of the rides and plain edges already finished; the current ride isn't included.
+    private int[] paid = new int[64];
+    // Number of line rides so far; the line changes are one less.
+    private int[] rides = new int[64];
+    // The label this one was extended from (-1 for the start).
+    private int[] parent = new int[64];
+    // Next label in the same bag (-1 at the end).
+    private int[] nextInBag = new int[64];
+    private boolean[] dead = new boolean[64];
+    private int labelCount;
+
+    // Remaining distance from every station to the current destination.
+    private int[] toTarget;
+    // Priority queue of labels: ((distance + remaining distance) << 32) | label, smallest first.
+    private long[] queue = new long[64];
+    private int queueSize;
+
+    /**
+     * @param metro The graph to route on. It must not change while the router is used.
+     */
+    ParetoRouter(MetroGraph metro) {
+        this.metro = metro;
+        this.graph = metro.graph();
+        int lineCount = 0;
+        for (int arcLine : graph.lines) {
+            lineCount = Math.max(lineCount, arcLine + 1);
+        }
+        this.extra = new int[lineCount][][];
+        this.arcPosition = new int[graph.targets.length];
+        for (int arc = 0; arc < arcPosition.length; arc++) {
+            arcPosition[arc] = graph.lines[arc] == -1 ? -1
+                    : metro.line(graph.lines[arc]).indexOf(metro.nameOf(graph.targets[arc]));
+        }
+    }
+
+    /**
+     * Finds the Pareto set of routes between two stations.
+     *
+     * @param start The name of the starting station.
+     * @param end The name of the destination station.
+     * @return The routes, shortest distance first; empty if there is no route.
+     */
+    synchronized List<Option> findRoutes(String start, String end) {
+        int source = metro.indexOf(start);
+        int target = metro.indexOf(end);
+        List<Option> options = new ArrayList<>();
+        if (source == -1 || target == -1) {
+            return options;
+        }
+
+        int n = graph.nodeCount();
+        // The graph is undirected, so a search from the destination gives the
+        // remaining distance from every station to it.
+        toTarget = new int[n];
+        metro.searchFrom(target, toTarget, new int[n], new int[n], new IndexedMinHeap(n));
+        if (toTarget[source] == Integer.MAX_VALUE) {
+            return options;
+        }
+        // First label of every bag, by bagKey.
+        Map<Long, Integer> bags = new HashMap<>();
+        labelCount = 0;
+        queueSize = 0;
+
+        // Finished routes: the label that reached the target and the route's totals.
+        List<int[]> results = new ArrayList<>(); // {label, distance, fare, transfers}
+
+        int first = newLabel(source, -1, -1, -1, 0, 0, 0, -1);
+        bags.put(bagKey(source, -1), first);
+        push(first);
+
+        while (queueSize > 0) {
+            int label = pop();
+            if (dead[label]) {
+                continue;
+            }
+            int v = station[label];
+            int rideFare = line[label] == -1 ? 0 : metro.line(line[label]).fare(board[label], at[label]);
+
+            if (v == target) {
+                // Alight here and record the route unless a finished one beats it.
+                int fare = paid[label] + rideFare;
+                int transfers = changes(rides[label]);
+                if (!beaten(results, distance[label], fare, transfers)) {
+                    // Labels come out in order of their total distance, so the new
+                    // route can only beat earlier ones that have the same distance.
+                    int d = distance[label];
+                    results.removeIf(res -> res[1] == d && res[2] >= fare && res[3] >= transfers);
+                    results.add(new int[] {label, d, fare, transfers});
+                }
+            }
+
+            for (int arc = graph.offsets[v]; arc < graph.offsets[v + 1]; arc++) {
+                int w = graph.targets[arc];
+                if (toTarget[w] == Integer.MAX_VALUE) {
+                    continue; // The destination can't be reached from there.
+                }
+                int arcLine = graph.lines[arc];
+                int nextDistance = distance[label] + graph.weights[arc];
+                int nextBoard;
+                int nextPaid;
+                int nextRides = rides[label];
+                if (arcLine == -1) {
+                    // A plain edge: leave the current ride (if any) and pay the edge's own fare.
+                    nextBoard = -1;
+                    nextPaid = paid[label] + rideFare + graph.fares[arc];
+                } else if (arcLine == line[label]) {
+                    // Stay on the same train.
+                    nextBoard = board[label];
+                    nextPaid = paid[label];
+                } else {
+                    // Board another line here.
+                    nextBoard = metro.line(arcLine).indexOf(metro.nameOf(v));
+                    nextPaid = paid[label] + rideFare;
+                    nextRides++;
+                }
+
+                // No count can go down from here, so a finished route that is at
+                // least as good as the best this label can still reach makes it useless.
+                if (beaten(results, nextDistance + toTarget[w], nextPaid, changes(nextRides))) {
+                    continue;
+                }
+                long key = bagKey(w, arcLine);
+                int head = pruneBag(bags.getOrDefault(key, -1), arcLine, nextBoard, nextDistance, nextPaid, nextRides);
+                if (head == BEATEN) {
+                    continue;
+                }
+                int next = newLabel(w, arcLine, nextBoard, arcPosition[arc], nextDistance, nextPaid, nextRides, label);
+                nextInBag[next] = head;
+                bags.put(key, next);
+                push(next);
+            }
+        }
+
+        for (int[] result : results) {
+            List<String> path = new ArrayList<>();
+            for (int step = result[0]; step != -1; step = parent[step]) {
+                path.add(metro.nameOf(station[step]));
+            }
+            Collections.reverse(path);
+            options.add(new Option(path, result[1], result[2], result[3]));
+        }
+        return options;
+    }
+
+    /**
+     * @return The number of line changes needed for this many rides.
+     */
+    private static int changes(int rideCount) {
+        return Math.max(0, rideCount - 1);
+    }
+
+    /**
+     * @return True if a finished route is at least as good as these totals on every count.
+     */
+    private static boolean beaten(List<int[]> results, int dist, int fare, int transfers) {
+        for (int[] result : results) {
+            if (result[1] <= dist && result[2] <= fare && result[3] <= transfers) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The key of the bag for a station and the line being ridden.
+     */
+    private long bagKey(int v, int rideLine) {
+        return (long) v * (extra.length + 1) + rideLine + 1;
+    }
+
+    /**
+     * @return The most that boarding a line at position a can cost more than
+     *         boarding it at position b, for a ride ending anywhere on the line.
+     */
+    private int extraFare(int rideLine, int a, int b) {
+        if (rideLine == -1 || a == b) {
+            return 0;
+        }
+        MetroLine metroLine = metro.line(rideLine);
+        int size = metroLine.stations().size();
+        if (extra[rideLine] == null) {
+            extra[rideLine] = new int[size][];
+        }
+        int[] row = extra[rideLine][a];
+        if (row == null) {
+            row = new int[size];
+            Arrays.fill(row, UNKNOWN);
+            extra[rideLine][a] = row;
+        }
+        if (row[b] == UNKNOWN) {
+            // One pass over two rows of the line's fare table; nothing is copied out of it
+            int most = Integer.MIN_VALUE;
+            for (int x = 0; x < size; x++) {
+                most = Math.max(most, metroLine.fare(a, x) - metroLine.fare(b, x));
+            }
+            row[b] = most;
+        }
+        return row[b];
+    }
+
+    /**
+     * Checks the totals of a new label against a bag. Labels in the bag that
+     * the new one beats are marked dead and unlinked.
+     *
+     * @param head The first label of the bag (-1 if it is empty).
+     * @return The new first label of the bag, or BEATEN if a label in the bag
+     *         is at least as good, so the new one isn't needed.
+     */
+    private int pruneBag(int head, int rideLine, int rideBoard, int dist, int fare, int rideCount) {
+        int previous = -1;
+        int label = head;
+        while (label != -1) {
+            int next = nextInBag[label];
+            if (distance[label] <= dist && rides[label] <= rideCount
+                    && paid[label] + extraFare(rideLine, board[label], rideBoard) <= fare) {
+                return BEATEN;
+            }
+            if (dist <= distance[label] && rideCount <= rides[label]
+                    && fare + extraFare(rideLine, rideBoard, board[label]) <= paid[label]) {
+                dead[label] = true;
+                if (previous == -1) {
+                    head = next;
+                } else {
+                    nextInBag[previous] = next;
+                }
+            } else {
+                previous = label;
+            }
+            label = next;
+        }
+        return head;
+    }
+
+    /**
+     * Stores a new label, growing the arrays if needed.
+     *
+     * @return The label id.
+     */
+    private int newLabel(int v, int rideLine, int rideBoard, int position, int dist, int fare, int rideCount, int from) {
+        if (labelCount == station.length) {
+            int size = labelCount * 2;
+            station = Arrays.copyOf(station, size);
+            line = Arrays.copyOf(line, size);
+            board = Arrays.copyOf(board, size);
+            at = Arrays.copyOf(at, size);
+            distance = Arrays.copyOf(distance, size);
+            paid = Arrays.copyOf(paid, size);
+            rides = Arrays.copyOf(rides, size);
+            parent = Arrays.copyOf(parent, size);
+            nextInBag = Arrays.copyOf(nextInBag, size);
+            dead = Arrays.copyOf(dead, size);
+        }
+        int label = labelCount++;
+        station[label] = v;
+        line[label] = rideLine;
+        board[label] = rideBoard;
+        at[label] = position;
+        distance[label] = dist;
+        paid[label] = fare;
+        rides[label] = rideCount;
+        parent[label] = from;
+        nextInBag[label] = -1;
+        dead[label] = false;
+        return label;
+    }
+
+    // --- A binary heap of labels, keyed by distance plus remaining distance ---
+
+    private void push(int label) {
+        if (queueSize == queue.length) {
+            queue = Arrays.copyOf(queue, queueSize * 2);
+        }
+        long key = ((long) (distance[label] + toTarget[station[label]]) << 32) | label;
+        int i = queueSize++;
+        while (i > 0) {
+            int up = (i - 1) / 2;
+            if (queue[up] <= key) {
+                break;
+            }
+            queue[i] = queue[up];
+            i = up;
+        }
+        queue[i] = key;
+    }
+
+    private int pop() {
+        int label = (int) queue[0];
+        long last = queue[--queueSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= queueSize) {
+                break;
+            }
+            if (child + 1 < queueSize && queue[child + 1] < queue[child]) {
+                child++;
+            }
+            if (last <= queue[child]) {
+                break;
+            }
+            queue[i] = queue[child];
+            i = child;
+        }
+        queue[i] = last;
+        return label;
+    }
+}
@@ -0,0 +1,33 @@
+package pune;
+
+/**
+ * Counters describing the work done by one route query, so different search
+ * modes and engines can be compared on the same network.
+ */
+final class QueryStats {
+
+    // The search algorithm that answered the query (null for engines that only look up tables).
+    String algorithm;
+    // Stations taken out of the priority queue (settled) by the search.
+    int settledNodes;
+    // Arcs looked at while relaxing the neighbours of settled stations.
+    int relaxedArcs;
+    // Wall-clock time of the query in nanoseconds.
+    long elapsedNanos;
+
+    /**
+     * Clears all counters before a new query.
+     */
+    void reset() {
+        algorithm = null;
+        settledNodes = 0;
+        relaxedArcs = 0;
+        elapsedNanos = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d settled, %d arcs relaxed, %.3f ms",
+                algorithm == null ? "lookup" : algorithm, settledNodes, relaxedArcs, elapsedNanos / 1_000_000.0);
+    }
+}
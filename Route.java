@@ -0,0 +1,41 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * The answer to one route query: the stations along the route, its distance
+ * and its fare. A Route never changes after it is created, so it can be
+ * cached and handed to several readers.
+ */
+final class Route {
+
+    private final List<String> path;
+    private final int distance;
+    private final int fare;
+
+    /**
+     * @param path The stations from source to destination (copied).
+     * @param distance The distance of the route, or Integer.MAX_VALUE if there is no route.
+     * @param fare The fare of the route.
+     */
+    Route(List<String> path, int distance, int fare) {
+        this.path = List.copyOf(path);
+        this.distance = distance;
+        this.fare = fare;
+    }
+
+    /**
+     * @return The stations from source to destination (read-only).
+     */
+    List<String> path() {
+        return path;
+    }
+
+    int distance() {
+        return distance;
+    }
+
+    int fare() {
+        return fare;
+    }
+}
@@ -0,0 +1,143 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * A bounded cache of recent route answers. Passengers ask for the same few
+ * station pairs again and again, so the answer for a pair is kept and reused
+ * until the network changes.
+ *
+ * Entries are keyed by (source, destination, network version) and kept in a
+ * LinkedHashMap in access order, so the least recently used entry is evicted
+ * when the cache is full. When a query arrives for a newer version than the
+ * cache holds, every entry is dropped at once: an admin edit makes all the
+ * old answers useless, and none of them can ever be hit again.
+ */
+final class RouteCache {
+
+    /**
+     * The cache key; the version keeps answers from different networks apart.
+     */
+    private static final class Key {
+        final String source;
+        final String destination;
+        final long version;
+
+        Key(String source, String destination, long version) {
+            this.source = source;
+            this.destination = destination;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return version == key.version && source.equals(key.source) && destination.equals(key.destination);
+        }
+
+        @Override
+        public int hashCode() {
+            return (source.hashCode() * 31 + destination.hashCode()) * 31 + Long.hashCode(version);
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Key, Route> entries;
+    // The network version of the cached entries.
+    private long version = -1;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param capacity The largest number of routes kept.
+     */
+    RouteCache(int capacity) {
+        this.capacity = capacity;
+        // accessOrder = true: a lookup moves the entry to the end, so the eldest is the least recently used.
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Route> eldest) {
+                if (size() > RouteCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached route for a pair, or asks the engine and caches its
+     * answer.
+     *
+     * @param source The source station.
+     * @param destination The destination station.
+     * @param version The version of the network the engine routes on.
+     * @param engine The engine used on a miss.
+     * @param stats Filled with the work done; a hit is reported as algorithm "cache".
+     * @return The route.
+     */
+    Route find(String source, String destination, long version, RouteEngine engine, QueryStats stats) {
+        long began = System.nanoTime();
+        Key key = new Key(source, destination, version);
+        synchronized (this) {
+            if (version > this.version) {
+                // The network changed: nothing cached so far can be used again.
+                entries.clear();
+                this.version = version;
+            }
+            Route route = entries.get(key);
+            if (route != null) {
+                hits++;
+                stats.reset();
+                stats.algorithm = "cache";
+                stats.elapsedNanos = System.nanoTime() - began;
+                return route;
+            }
+            misses++;
+        }
+
+        // Search outside the lock, so one slow query doesn't hold up the others.
+        List<String> path = new ArrayList<>();
+        int distance = engine.findRoute(source, destination, path, stats);
+        Route route = new Route(path, distance, engine.totalFare(source, destination, path));
+        synchronized (this) {
+            // Don't store an answer for a network that has been replaced meanwhile.
+            if (version == this.version) {
+                entries.put(key, route);
+            }
+        }
+        return route;
+    }
+
+    /**
+     * @return The number of queries answered from the cache.
+     */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of queries that had to be searched.
+     */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * @return The number of routes dropped because the cache was full.
+     */
+    synchronized long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("route cache: %d hits, %d misses, %d evictions, %d/%d entries",
+                hits, misses, evictions, entries.size(), capacity);
+    }
+}
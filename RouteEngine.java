@@ -0,0 +1,46 @@
+package pune;
+
+import java.util.List;
+
+/**
+ * A way of answering route queries on the metro network. MetroGraph answers
+ * them by running Dijkstra's algorithm; other engines may precompute tables
+ * so that a query becomes a lookup.
+ */
+interface RouteEngine {
+
+    /**
+     * Finds the shortest route between two stations.
+     * @param start The starting station.
+     * @param end The destination station.
+     * @param path An empty list that will be populated with the stations on the route.
+     * @return The total distance of the route, or Integer.MAX_VALUE if there is none.
+     */
+    int findRoute(String start, String end, List<String> path);
+
+    /**
+     * Finds the shortest route between two stations and records how much work
+     * the query took. Engines that don't search leave the counters at zero.
+     * @param start The starting station.
+     * @param end The destination station.
+     * @param path An empty list that will be populated with the stations on the route.
+     * @param stats Filled with the statistics of this query.
+     * @return The total distance of the route, or Integer.MAX_VALUE if there is none.
+     */
+    default int findRoute(String start, String end, List<String> path, QueryStats stats) {
+        stats.reset();
+        long began = System.nanoTime();
+        int distance = findRoute(start, end, path);
+        stats.elapsedNanos = System.nanoTime() - began;
+        return distance;
+    }
+
+    /**
+     * Calculates the fare of a route found by findRoute.
+     * @param start The starting station.
+     * @param end The destination station.
+     * @param path The route returned by findRoute for the same stations.
+     * @return The total fare of the route.
+     */
+    int totalFare(String start, String end, List<String> path);
+}
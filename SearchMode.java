@@ -0,0 +1,11 @@
+package pune;
+
+/**
+ * The search algorithm MetroGraph uses for a point-to-point route query.
+ */
+enum SearchMode {
+    // Dijkstra's algorithm growing one frontier from the start station.
+    DIJKSTRA,
+    // Two Dijkstra frontiers, one from each end, stopping when they meet.
+    BIDIRECTIONAL
+}
@@ -0,0 +1,109 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * A route engine that keeps the whole shortest-path tree of recent origin
+ * stations. The first query from an origin runs Dijkstra to every station
+ * and stores the result as a parent array plus a distance array; every later
+ * query from the same origin, to any destination, is just a walk back along
+ * the parent links. Kiosks at busy stations ask almost only from their own
+ * station, so most of their queries need no search at all.
+ *
+ * The engine belongs to one network version (Main creates a new one after
+ * every edit), so the cached trees never go stale.
+ */
+final class ShortestPathTreeEngine implements RouteEngine {
+
+    // Number of origin trees kept; each costs two int arrays of the station count.
+    static final int DEFAULT_TREES = 64;
+
+    /**
+     * The shortest paths from one origin to every station.
+     */
+    private static final class Tree {
+        // parent[v] is the station before v on the shortest path from the origin (-1 for the origin and unreachable stations).
+        final int[] parent;
+        // dist[v] is the distance from the origin to v (Integer.MAX_VALUE if unreachable).
+        final int[] dist;
+
+        Tree(int[] parent, int[] dist) {
+            this.parent = parent;
+            this.dist = dist;
+        }
+    }
+
+    private final MetroGraph metro;
+    private final int capacity;
+    // Trees by origin station id, least recently used first.
+    private final LinkedHashMap<Integer, Tree> trees;
+
+    /**
+     * @param metro The graph to route on. It must not change while the engine is used.
+     * @param capacity The largest number of origin trees kept.
+     */
+    ShortestPathTreeEngine(MetroGraph metro, int capacity) {
+        this.metro = metro;
+        this.capacity = capacity;
+        this.trees = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Tree> eldest) {
+                return size() > ShortestPathTreeEngine.this.capacity;
+            }
+        };
+    }
+
+    @Override
+    public int findRoute(String start, String end, List<String> path) {
+        return findRoute(start, end, path, new QueryStats());
+    }
+
+    @Override
+    public int findRoute(String start, String end, List<String> path, QueryStats stats) {
+        long began = System.nanoTime();
+        stats.reset();
+        stats.algorithm = "tree";
+        path.clear();
+        int source = metro.indexOf(start);
+        int target = metro.indexOf(end);
+        if (source == -1 || target == -1) {
+            path.add(end);
+            return Integer.MAX_VALUE;
+        }
+
+        Tree tree = treeFrom(source, stats);
+        for (int step = target; step != -1; step = tree.parent[step]) {
+            path.add(metro.nameOf(step));
+        }
+        Collections.reverse(path);
+        stats.elapsedNanos = System.nanoTime() - began;
+        return tree.dist[target];
+    }
+
+    /**
+     * Returns the cached tree of an origin, building it first if needed.
+     */
+    private Tree treeFrom(int source, QueryStats stats) {
+        synchronized (trees) {
+            Tree tree = trees.get(source);
+            if (tree != null) {
+                return tree;
+            }
+        }
+        // Build outside the lock; if two threads build the same tree, both are correct.
+        int n = metro.graph().nodeCount();
+        int[] dist = new int[n];
+        int[] parent = new int[n];
+        stats.settledNodes = metro.searchFrom(source, dist, parent, new int[n], new IndexedMinHeap(n));
+        Tree tree = new Tree(parent, dist);
+        synchronized (trees) {
+            trees.put(source, tree);
+        }
+        return tree;
+    }
+
+    @Override
+    public int totalFare(String start, String end, List<String> path) {
+        return metro.totalFare(start, end, path);
+    }
+}
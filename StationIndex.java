@@ -0,0 +1,242 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * Answers "where is this station?" without scanning the lines: for every
+ * station name, the lines it is on and its position on each; and for every
+ * display number shown in the station list, the station it stands for.
+ *
+ * Display numbers run through the lines in display order (1 to n1 for the
+ * first line, n1 + 1 onwards for the second, ...). The index keeps the
+ * number of each line's first station, so a number is found with a binary
+ * search over the lines instead of a walk through every station.
+ *
+ * Stations are looked up by their StationRegistry id, so the index is an
+ * array rather than a second hash table keyed by name.
+ *
+ * A StationIndex never changes after it is created. An edit to one line
+ * produces a new index with withLine, which only updates the entries of
+ * the stations on the old and new version of that line. The per-station
+ * table is split into chunks of CHUNK stations, and the new index shares
+ * every chunk without such a station with the old one, so an edit doesn't
+ * copy the whole table.
+ */
+final class StationIndex {
+
+    /**
+     * One place where a station appears: a line and the position on it.
+     */
+    static final class Stop {
+        final String line;
+        final int position;
+
+        Stop(String line, int position) {
+            this.line = line;
+            this.position = position;
+        }
+    }
+
+    // Stations per chunk of the stops table.
+    private static final int CHUNK_BITS = 8;
+    private static final int CHUNK = 1 << CHUNK_BITS;
+
+    // Lines in display order.
+    private final List<MetroLine> lines;
+    // firstNumber[i] is the display number of the first station of lines[i];
+    // firstNumber[lines.size()] is one past the last number.
+    private final int[] firstNumber;
+    private final StationRegistry registry;
+    // stops[id / CHUNK][id % CHUNK] lists where station id appears, in display
+    // order of the lines (null if it isn't on any line, and a whole chunk is null
+    // if none of its stations is). The chunks and lists are never changed once
+    // the index is created, since later indexes may share them.
+    private final List<Stop>[][] stops;
+    // The number of stations on at least one line.
+    private final int stationCount;
+
+    private StationIndex(StationRegistry registry, List<MetroLine> lines, List<Stop>[][] stops, int stationCount) {
+        this.registry = registry;
+        this.lines = lines;
+        this.stops = stops;
+        this.stationCount = stationCount;
+        this.firstNumber = new int[lines.size() + 1];
+        firstNumber[0] = 1;
+        for (int i = 0; i < lines.size(); i++) {
+            firstNumber[i + 1] = firstNumber[i] + lines.get(i).stations().size();
+        }
+    }
+
+    /**
+     * Builds the index of a network.
+     * @param registry The registry giving the station ids; every station of the lines must be in it.
+     * @param lines The lines in display order.
+     * @return The index.
+     */
+    static StationIndex of(StationRegistry registry, Collection<MetroLine> lines) {
+        List<Stop>[][] stops = newTable(registry.size());
+        int stationCount = 0;
+        for (MetroLine line : lines) {
+            for (String station : line.stations()) {
+                int id = registry.idOf(station);
+                List<Stop>[] chunk = stops[id >>> CHUNK_BITS];
+                if (chunk == null) {
+                    chunk = newChunk();
+                    stops[id >>> CHUNK_BITS] = chunk;
+                }
+                if (chunk[id & (CHUNK - 1)] == null) {
+                    chunk[id & (CHUNK - 1)] = new ArrayList<>(1);
+                    stationCount++;
+                }
+                // A loop line lists its first station twice; count the line once.
+                List<Stop> list = chunk[id & (CHUNK - 1)];
+                if (list.isEmpty() || !list.get(list.size() - 1).line.equals(line.name())) {
+                    list.add(new Stop(line.name(), line.indexOf(station)));
+                }
+            }
+        }
+        for (List<Stop>[] chunk : stops) {
+            if (chunk != null) {
+                for (int i = 0; i < CHUNK; i++) {
+                    if (chunk[i] != null) {
+                        chunk[i] = List.copyOf(chunk[i]);
+                    }
+                }
+            }
+        }
+        return new StationIndex(registry, List.copyOf(lines), stops, stationCount);
+    }
+
+    /**
+     * @return An empty stops table (no chunks yet) with room for this many stations.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Stop>[][] newTable(int stationCount) {
+        return (List<Stop>[][]) new List<?>[(stationCount + CHUNK - 1) >>> CHUNK_BITS][];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Stop>[] newChunk() {
+        return (List<Stop>[]) new List<?>[CHUNK];
+    }
+
+    /**
+     * Returns the index after one line is added or replaced. Only the stations
+     * of the old and the new version of the line are re-indexed, and only the
+     * chunks holding them are copied. The list of lines is copied, which costs
+     * one entry per line rather than per station.
+     * @param line The new or changed line.
+     * @return The new index.
+     */
+    StationIndex withLine(MetroLine line) {
+        List<MetroLine> nextLines = new ArrayList<>(lines);
+        MetroLine old = null;
+        for (int i = 0; i < nextLines.size(); i++) {
+            if (nextLines.get(i).name().equals(line.name())) {
+                old = nextLines.set(i, line);
+                break;
+            }
+        }
+        if (old == null) {
+            nextLines.add(line);
+        } else if (old.stations().equals(line.stations())) {
+            // Only the fares changed (stops name lines, not line objects), so every chunk is shared.
+            return new StationIndex(registry, List.copyOf(nextLines), stops, stationCount);
+        }
+
+        Map<String, Integer> order = new HashMap<>();
+        for (int i = 0; i < nextLines.size(); i++) {
+            order.put(nextLines.get(i).name(), i);
+        }
+
+        // Stations whose entries change: those on the old and on the new line.
+        Set<String> touched = new HashSet<>(line.stations());
+        if (old != null) {
+            touched.addAll(old.stations());
+        }
+        // Start from the old chunks; a chunk is copied the first time one of its
+        // stations changes, and all others stay shared.
+        List<Stop>[][] nextStops = Arrays.copyOf(stops, newTable(registry.size()).length);
+        Set<Integer> copied = new HashSet<>();
+        int nextCount = stationCount;
+        for (String station : touched) {
+            // Rebuild this station's list in line order from the lines that still have it.
+            List<Stop> list = new ArrayList<>(1);
+            for (Stop stop : stopsAt(station)) {
+                if (!stop.line.equals(line.name())) {
+                    list.add(stop);
+                }
+            }
+            int position = line.indexOf(station);
+            if (position != -1) {
+                list.add(new Stop(line.name(), position));
+                list.sort(Comparator.comparingInt(stop -> order.get(stop.line)));
+            }
+            if (list.isEmpty() != stopsAt(station).isEmpty()) {
+                nextCount += list.isEmpty() ? -1 : 1;
+            }
+            int id = registry.idOf(station);
+            int chunk = id >>> CHUNK_BITS;
+            if (copied.add(chunk)) {
+                nextStops[chunk] = nextStops[chunk] == null ? newChunk() : nextStops[chunk].clone();
+            }
+            nextStops[chunk][id & (CHUNK - 1)] = list.isEmpty() ? null : List.copyOf(list);
+        }
+        return new StationIndex(registry, List.copyOf(nextLines), nextStops, nextCount);
+    }
+
+    /**
+     * @return The number of stations on at least one line. Registry ids of
+     *         stations no longer on any line are not counted.
+     */
+    int stationCount() {
+        return stationCount;
+    }
+
+    /**
+     * @return Where a station appears (empty if it isn't on any line).
+     */
+    List<Stop> stopsAt(String station) {
+        int id = registry.idOf(station);
+        if (id == -1 || (id >>> CHUNK_BITS) >= stops.length || stops[id >>> CHUNK_BITS] == null) {
+            return List.of();
+        }
+        List<Stop> list = stops[id >>> CHUNK_BITS][id & (CHUNK - 1)];
+        return list == null ? List.of() : list;
+    }
+
+    /**
+     * @return The position of a station on a line, or -1 if it isn't on it.
+     */
+    int positionOn(String station, String line) {
+        for (Stop stop : stopsAt(station)) {
+            if (stop.line.equals(line)) {
+                return stop.position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Converts a display number from the station list to a station name.
+     * @param number The number the user entered.
+     * @return The station name, or null if there is no such number.
+     */
+    String stationAt(int number) {
+        if (number < firstNumber[0] || number >= firstNumber[lines.size()]) {
+            return null;
+        }
+        // The last line whose first number is not greater than the number.
+        int low = 0;
+        int high = lines.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (firstNumber[middle] <= number) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return lines.get(low).stations().get(number - firstNumber[low]);
+    }
+}
@@ -0,0 +1,87 @@
+package pune;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The station symbol table: gives every station name a dense integer id
+ * (0, 1, 2, ...) and keeps each name exactly once. Graphs, fare lookups and
+ * the station index all use these ids, so the same name isn't stored and
+ * hashed again in every structure.
+ *
+ * The registry only grows: ids are never reused or taken back, so an id
+ * handed out once means the same station for as long as the registry lives.
+ * That makes it safe to share one registry between versions of a network
+ * (snapshots and copies of a graph) and between threads. Since a removed
+ * station keeps its id, NetworkSnapshot starts a new registry once most ids
+ * are no longer in use. Lookups don't lock; registering a new name does.
+ */
+final class StationRegistry {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    // names[id] is the name of station id. The array is replaced (never changed
+    // in place below size) when it grows, so readers can use it without locking.
+    private volatile String[] names = new String[16];
+    private volatile int size;
+
+    /**
+     * Returns the id of a station, registering it if it hasn't been seen before.
+     * @param name The station name.
+     * @return The id.
+     */
+    int register(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            String[] current = names;
+            if (size == current.length) {
+                current = Arrays.copyOf(current, size * 2);
+            }
+            current[size] = name;
+            // Publish the name before the id, so anyone who finds the id also finds the name.
+            names = current;
+            ids.put(name, size);
+            size++;
+            return size - 1;
+        }
+    }
+
+    /**
+     * @return The id of a station, or -1 if it was never registered.
+     */
+    int idOf(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return The name of the station with the given id.
+     */
+    String nameOf(int id) {
+        return names[id];
+    }
+
+    /**
+     * Returns the stored copy of a name, registering it if needed. Station
+     * lists built from this (for example while reading the data file) share
+     * one String per station instead of one per occurrence.
+     * @param name A station name.
+     * @return The registry's copy of the same name.
+     */
+    String canonical(String name) {
+        return nameOf(register(name));
+    }
+
+    /**
+     * @return The number of registered stations; every id is below this.
+     */
+    int size() {
+        return size;
+    }
+}
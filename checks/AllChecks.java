@@ -0,0 +1,20 @@
+package pune;
+
+/**
+ * Runs every check in this directory (see Checks).
+ */
+final class AllChecks {
+
+    private AllChecks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        ParetoRouterCheck.main(args);
+        StationIndexCheck.main(args);
+        KShortestPathsCheck.main(args);
+        ContractionHierarchyCheck.main(args);
+        GraphPatchCheck.main(args);
+        ChangeJournalCheck.main(args);
+        System.out.println("All checks passed.");
+    }
+}
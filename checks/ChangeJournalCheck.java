@@ -0,0 +1,120 @@
+package pune;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Checks journal replay: the changes written before a restart come back, a
+ * torn or corrupted last record is dropped, and a journal that is damaged in
+ * the middle or skips changes is set aside, with only the changes before the
+ * problem applied. Runs in a temporary folder that is deleted afterwards.
+ */
+final class ChangeJournalCheck {
+
+    private ChangeJournalCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path folder = Files.createTempDirectory("journal-check");
+        Path file = folder.resolve("metro.journal");
+        Path old = folder.resolve("metro.journal.old");
+        try {
+            write(file, 0, 3);
+            ChangeJournal.Replayed replayed = reopen(file, 0, 3);
+            Checks.check(replayed.journal.lastSequence() == 3, "wrong last change number after replay");
+            replayed.journal.close();
+            reopen(file, 2, 1).journal.close();
+
+            // The last record cut short, as after a crash in the middle of a write
+            clear(folder);
+            write(file, 0, 3);
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+            reopen(file, 0, 2).journal.close();
+            Checks.check(!Files.exists(old), "a torn last record made the journal be set aside");
+            reopen(file, 0, 2).journal.close();
+
+            // A flipped bit in the last record
+            clear(folder);
+            write(file, 0, 3);
+            bytes = Files.readAllBytes(file);
+            bytes[bytes.length - 6] ^= 1;
+            Files.write(file, bytes);
+            reopen(file, 0, 2).journal.close();
+            Checks.check(!Files.exists(old), "a damaged last record made the journal be set aside");
+
+            // A flipped bit before the last record
+            clear(folder);
+            write(file, 0, 3);
+            bytes = Files.readAllBytes(file);
+            bytes[bytes.length / 2] ^= 1;
+            Files.write(file, bytes);
+            reopen(file, 0, 1).journal.close();
+            Checks.check(Files.exists(old), "a journal damaged in the middle wasn't set aside");
+            reopen(file, 0, 1).journal.close();
+
+            // Changes 1-2, then 5-6: only the first two can be applied
+            clear(folder);
+            write(file, 0, 2);
+            write(file, 4, 2);
+            reopen(file, 0, 2).journal.close();
+            Checks.check(Files.exists(old), "a journal with a gap wasn't set aside");
+            reopen(file, 0, 2).journal.close();
+
+            // A journal that starts after the snapshot: nothing can be applied
+            clear(folder);
+            write(file, 50, 3);
+            replayed = reopen(file, 40, 0);
+            Checks.check(replayed.journal.lastSequence() == 40, "a journal that skips changes moved the change number on");
+            replayed.journal.close();
+        } finally {
+            clear(folder);
+            Files.delete(folder);
+        }
+        System.out.println("ChangeJournal: replay, torn and damaged records and gaps checked.");
+    }
+
+    private static NetworkSnapshot network() {
+        int[][] fares = {{0, 1, 2}, {1, 0, 1}, {2, 1, 0}};
+        return NetworkSnapshot.of(List.of(new MetroLine("red", List.of("A", "B", "C"), 1, fares)));
+    }
+
+    private static ChangeJournal.Replayed open(Path file, long sequence) throws IOException {
+        return ChangeJournal.open(file, network(), sequence, 1 << 20, 0, (snapshot, last) -> { });
+    }
+
+    /**
+     * Records fare changes from A to C (10, 11, ...) after a snapshot taken at the given change.
+     */
+    private static void write(Path file, long sequence, int count) throws IOException {
+        ChangeJournal.Replayed replayed = open(file, sequence);
+        NetworkSnapshot network = replayed.network;
+        for (int i = 0; i < count; i++) {
+            NetworkChange change = NetworkChange.updateFare("A", "C", 10 + i);
+            network = change.applyTo(network);
+            replayed.journal.append(change, network);
+        }
+        replayed.journal.close();
+    }
+
+    /**
+     * Opens the journal again and checks how many fare changes were replayed on
+     * top of a snapshot taken at the given change, for a journal written from change 0.
+     */
+    private static ChangeJournal.Replayed reopen(Path file, long sequence, int expected) throws IOException {
+        ChangeJournal.Replayed replayed = open(file, sequence);
+        Checks.check(replayed.changes == expected, "replayed " + replayed.changes + " changes instead of " + expected);
+        int fare = expected == 0 ? 2 : 10 + (int) sequence + expected - 1;
+        Checks.check(replayed.network.line("red").fare(0, 2) == fare, "wrong fare after replaying " + expected + " changes");
+        return replayed;
+    }
+
+    private static void clear(Path folder) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * Helpers shared by the checks in this directory. Each check compares a
+ * fast part of the planner with a slow but obviously correct way of getting
+ * the same answer (trying every route, rebuilding from scratch, ...) on
+ * many small random networks, and stops with an AssertionError at the first
+ * difference. The random seeds are fixed, so a failure can be repeated.
+ *
+ * <p>The checks are not part of the program. Compile them together with it
+ * and run them all, or one at a time by class name:
+ * <pre>
+ *   javac -encoding UTF-8 -d out *.java checks/*.java
+ *   java -cp out pune.AllChecks
+ * </pre>
+ */
+final class Checks {
+
+    private Checks() {
+    }
+
+    /**
+     * Stops the check if a condition doesn't hold.
+     *
+     * @param condition What must be true.
+     * @param message What went wrong, shown if it isn't.
+     */
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    /**
+     * Makes a line of distinct stations chosen from s0 .. s(pool - 1), with
+     * random fares and distance weight.
+     *
+     * @param random The random numbers to use.
+     * @param name The line name.
+     * @param pool How many station names to choose from.
+     * @param length The number of stations; at most pool.
+     * @return The line.
+     */
+    static MetroLine randomLine(Random random, String name, int pool, int length) {
+        List<String> stations = new ArrayList<>();
+        Set<Integer> used = new HashSet<>();
+        while (stations.size() < length) {
+            int station = random.nextInt(pool);
+            if (used.add(station)) {
+                stations.add("s" + station);
+            }
+        }
+        return new MetroLine(name, stations, 1 + random.nextInt(4), randomFares(random, length));
+    }
+
+    /**
+     * Adds up the distance of a route hop by hop, checking that every hop is
+     * a real connection.
+     *
+     * @param metro The graph the route is on.
+     * @param path The station names of the route, in travel order.
+     * @return The distance.
+     */
+    static int pathDistance(MetroGraph metro, List<String> path) {
+        CsrGraph graph = metro.graph();
+        int distance = 0;
+        for (int i = 0; i + 1 < path.size(); i++) {
+            int from = metro.indexOf(path.get(i));
+            int to = metro.indexOf(path.get(i + 1));
+            int arc = from == -1 || to == -1 ? -1 : graph.findArc(from, to);
+            check(arc != -1, "no connection between " + path.get(i) + " and " + path.get(i + 1) + " in " + path);
+            distance += graph.weights[arc];
+        }
+        return distance;
+    }
+
+    /**
+     * @return A symmetric fare matrix with zeros on the diagonal and fares below 40.
+     */
+    static int[][] randomFares(Random random, int size) {
+        int[][] fares = new int[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = i + 1; j < size; j++) {
+                fares[i][j] = random.nextInt(40);
+                fares[j][i] = fares[i][j];
+            }
+        }
+        return fares;
+    }
+}
@@ -0,0 +1,54 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * Checks ContractionHierarchy against plain Dijkstra on the same graph: for
+ * every pair of stations both must find the same distance, and the route the
+ * hierarchy unpacks must use real connections that add up to that distance.
+ */
+final class ContractionHierarchyCheck {
+
+    private static final int NETWORKS = 300;
+
+    private ContractionHierarchyCheck() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(9);
+        int checked = 0;
+        for (int network = 0; network < NETWORKS; network++) {
+            int stations = 2 + random.nextInt(60);
+            MetroGraph metro = new MetroGraph();
+            // A zero-length edge from a station to itself just adds the station.
+            for (int s = 0; s < stations; s++) {
+                metro.addEdge("s" + s, "s" + s, 0, 0);
+            }
+            int edges = random.nextInt(3 * stations);
+            for (int e = 0; e < edges; e++) {
+                metro.addEdge("s" + random.nextInt(stations), "s" + random.nextInt(stations),
+                        random.nextInt(9), random.nextInt(9));
+            }
+            ContractionHierarchy hierarchy = new ContractionHierarchy(metro);
+
+            for (int from = 0; from < stations; from++) {
+                for (int to = 0; to < stations; to++) {
+                    String start = "s" + from;
+                    String end = "s" + to;
+                    List<String> expected = new ArrayList<>();
+                    List<String> path = new ArrayList<>();
+                    int distance = metro.dijkstra(start, end, expected);
+                    int found = hierarchy.findRoute(start, end, path);
+                    String query = start + " -> " + end;
+                    Checks.check(found == distance, query + ": distance " + found + ", Dijkstra says " + distance);
+                    if (distance != Integer.MAX_VALUE) {
+                        Checks.check(path.get(0).equals(start) && path.get(path.size() - 1).equals(end), query + ": wrong ends " + path);
+                        Checks.check(Checks.pathDistance(metro, path) == distance, query + ": route doesn't add up " + path);
+                    }
+                    checked++;
+                }
+            }
+        }
+        System.out.println("ContractionHierarchy: " + NETWORKS + " networks, " + checked + " pairs checked.");
+    }
+}
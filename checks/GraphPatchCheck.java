@@ -0,0 +1,91 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * Checks the graph patching behind NetworkChange: after every random added
+ * or removed station, new line and fare change, the patched graph must have
+ * exactly the arcs of a graph built from scratch from the same lines, and
+ * the graph it was patched from (which shares arrays with it) must not have
+ * changed.
+ */
+final class GraphPatchCheck {
+
+    private static final int NETWORKS = 300;
+    private static final int CHANGES = 30;
+
+    private GraphPatchCheck() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        int checked = 0;
+        for (int network = 0; network < NETWORKS; network++) {
+            int pool = 20 + random.nextInt(200);
+            List<MetroLine> lines = new ArrayList<>();
+            int lineCount = 1 + random.nextInt(4);
+            for (int l = 0; l < lineCount; l++) {
+                lines.add(Checks.randomLine(random, "l" + l, pool, 2 + random.nextInt(8)));
+            }
+            NetworkSnapshot snapshot = NetworkSnapshot.of(lines);
+
+            for (int step = 0; step < CHANGES; step++) {
+                List<MetroLine> current = new ArrayList<>(snapshot.lines().values());
+                MetroLine line = current.get(random.nextInt(current.size()));
+                List<String> stations = line.stations();
+                NetworkChange change;
+                switch (random.nextInt(4)) {
+                    case 0:
+                        change = NetworkChange.addStation(line.name(), "s" + random.nextInt(pool),
+                                1 + random.nextInt(stations.size() + 1));
+                        break;
+                    case 1:
+                        change = NetworkChange.removeStation(line.name(), stations.get(random.nextInt(stations.size())));
+                        break;
+                    case 2:
+                        MetroLine added = Checks.randomLine(random, "n" + network + "_" + step, pool, 2 + random.nextInt(5));
+                        change = NetworkChange.addLine(added.name(), added.stations(), added.distance(), added.fares());
+                        break;
+                    default:
+                        change = NetworkChange.updateFare(stations.get(random.nextInt(stations.size())),
+                                stations.get(random.nextInt(stations.size())), random.nextInt(100));
+                        break;
+                }
+                String before = describe(snapshot.graph().graph());
+                NetworkSnapshot next;
+                try {
+                    next = change.applyTo(snapshot);
+                } catch (IllegalArgumentException e) {
+                    // For example a station that is already on the line
+                    continue;
+                }
+                Checks.check(describe(snapshot.graph().graph()).equals(before), "a change altered the graph it started from");
+                snapshot = next;
+
+                MetroGraph rebuilt = new MetroGraph(snapshot.graph().registry());
+                for (MetroLine l : snapshot.lines().values()) {
+                    rebuilt.addLine(l);
+                }
+                Checks.check(describe(snapshot.graph().graph()).equals(describe(rebuilt.graph())),
+                        "patched graph differs from a rebuilt one in network " + network + ", change " + step);
+                checked++;
+            }
+        }
+        System.out.println("GraphPatch: " + checked + " changes checked.");
+    }
+
+    /**
+     * Lists every arc as "from>to weight fare line", one station row per line,
+     * leaving out stations without arcs so that graphs of different sizes compare.
+     */
+    private static String describe(CsrGraph graph) {
+        StringBuilder text = new StringBuilder();
+        for (int station = 0; station < graph.nodeCount(); station++) {
+            for (int arc = graph.offsets[station]; arc < graph.offsets[station + 1]; arc++) {
+                text.append(station).append('>').append(graph.targets[arc]).append(' ').append(graph.weights[arc])
+                        .append(' ').append(graph.fares[arc]).append(' ').append(graph.lines[arc]).append('\n');
+            }
+        }
+        return text.toString();
+    }
+}
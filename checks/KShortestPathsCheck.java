@@ -0,0 +1,88 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * Checks KShortestPaths (Yen's algorithm) against brute force: the distances
+ * of every loopless route between the two stations are listed and sorted,
+ * and the k routes found must have the k smallest of them, in order, each
+ * being a different loopless route with the right fare.
+ */
+final class KShortestPathsCheck {
+
+    private static final int NETWORKS = 300;
+    private static final int QUERIES = 10;
+
+    private KShortestPathsCheck() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(7);
+        int checked = 0;
+        for (int network = 0; network < NETWORKS; network++) {
+            int stations = 4 + random.nextInt(7);
+            MetroGraph metro = new MetroGraph();
+            for (int line = 0; line < 3; line++) {
+                int length = Math.min(stations, 2 + random.nextInt(5));
+                metro.addLine(Checks.randomLine(random, "l" + line, stations, length));
+            }
+            int edges = random.nextInt(4);
+            for (int e = 0; e < edges; e++) {
+                metro.addEdge("s" + random.nextInt(stations), "s" + random.nextInt(stations),
+                        1 + random.nextInt(5), random.nextInt(20));
+            }
+            metro.refresh();
+            KShortestPaths yen = new KShortestPaths(metro);
+
+            for (int query = 0; query < QUERIES; query++) {
+                String start = "s" + random.nextInt(stations);
+                String end = "s" + random.nextInt(stations);
+                int k = 1 + random.nextInt(8);
+                List<Route> routes = yen.findRoutes(start, end, k);
+                if (metro.indexOf(start) == -1 || metro.indexOf(end) == -1) {
+                    Checks.check(routes.isEmpty(), "routes for a station that isn't on any line");
+                    continue;
+                }
+                List<Integer> all = new ArrayList<>();
+                boolean[] onPath = new boolean[metro.graph().nodeCount()];
+                onPath[metro.indexOf(start)] = true;
+                allDistances(metro.graph(), metro.indexOf(start), metro.indexOf(end), 0, onPath, all);
+                Collections.sort(all);
+
+                String query0 = start + " -> " + end + " (k = " + k + ")";
+                Checks.check(routes.size() == Math.min(k, all.size()), query0 + ": found " + routes.size() + " routes");
+                Set<List<String>> seen = new HashSet<>();
+                for (int i = 0; i < routes.size(); i++) {
+                    Route route = routes.get(i);
+                    List<String> path = route.path();
+                    Checks.check(route.distance() == all.get(i), query0 + ": route " + (i + 1) + " is not the next shortest");
+                    Checks.check(path.get(0).equals(start) && path.get(path.size() - 1).equals(end), query0 + ": wrong ends " + path);
+                    Checks.check(new HashSet<>(path).size() == path.size(), query0 + ": route with a loop " + path);
+                    Checks.check(seen.add(path), query0 + ": route found twice " + path);
+                    Checks.check(Checks.pathDistance(metro, path) == route.distance(), query0 + ": distance doesn't add up");
+                    Checks.check(route.fare() == metro.totalFare(start, end, path), query0 + ": wrong fare");
+                    checked++;
+                }
+            }
+        }
+        System.out.println("KShortestPaths: " + NETWORKS + " networks, " + checked + " routes checked.");
+    }
+
+    /**
+     * Adds the distance of every loopless route from a station to the end to a list.
+     */
+    private static void allDistances(CsrGraph graph, int station, int end, int distance, boolean[] onPath, List<Integer> all) {
+        if (station == end) {
+            all.add(distance);
+            return;
+        }
+        for (int arc = graph.offsets[station]; arc < graph.offsets[station + 1]; arc++) {
+            int next = graph.targets[arc];
+            if (!onPath[next]) {
+                onPath[next] = true;
+                allDistances(graph, next, end, distance + graph.weights[arc], onPath, all);
+                onPath[next] = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * Checks ParetoRouter against brute force: every loopless route between the
+ * two stations is listed, and the router's options must be exactly the ones
+ * no other route beats on distance, fare and line changes.
+ */
+final class ParetoRouterCheck {
+
+    private static final int NETWORKS = 300;
+    private static final int QUERIES = 10;
+
+    private ParetoRouterCheck() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(5);
+        int options = 0;
+        for (int network = 0; network < NETWORKS; network++) {
+            // A few short lines over a handful of stations, sometimes with a plain edge.
+            int stations = 4 + random.nextInt(6);
+            MetroGraph metro = new MetroGraph();
+            for (int line = 0; line < 3; line++) {
+                int length = Math.min(stations, 2 + random.nextInt(4));
+                metro.addLine(Checks.randomLine(random, "l" + line, stations, length));
+            }
+            if (random.nextBoolean()) {
+                metro.addEdge("s0", "s1", 1 + random.nextInt(5), random.nextInt(20));
+            }
+            metro.refresh();
+            ParetoRouter router = new ParetoRouter(metro);
+
+            for (int query = 0; query < QUERIES; query++) {
+                String start = "s" + random.nextInt(stations);
+                String end = "s" + random.nextInt(stations);
+                List<ParetoRouter.Option> found = router.findRoutes(start, end);
+                if (metro.indexOf(start) == -1 || metro.indexOf(end) == -1) {
+                    Checks.check(found.isEmpty(), "options for a station that isn't on any line");
+                    continue;
+                }
+                List<int[]> all = allRoutes(metro, metro.indexOf(start), metro.indexOf(end));
+                List<int[]> offered = new ArrayList<>();
+                for (ParetoRouter.Option option : found) {
+                    List<Integer> path = new ArrayList<>();
+                    for (String name : option.path) {
+                        path.add(metro.indexOf(name));
+                    }
+                    int[] totals = totals(metro, path);
+                    Checks.check(totals[0] == option.distance && totals[1] == option.fare && totals[2] == option.transfers,
+                            "option " + option.path + " doesn't add up to its totals");
+                    offered.add(totals);
+                }
+                for (int[] route : all) {
+                    Checks.check(offered.stream().anyMatch(option -> beatsOrTies(option, route)),
+                            start + " -> " + end + ": no option is as good as " + Arrays.toString(route));
+                }
+                for (int[] option : offered) {
+                    for (int[] route : all) {
+                        Checks.check(!beatsOrTies(route, option) || Arrays.equals(route, option),
+                                start + " -> " + end + ": option " + Arrays.toString(option) + " is beaten");
+                    }
+                }
+                for (int i = 0; i < offered.size(); i++) {
+                    for (int j = 0; j < offered.size(); j++) {
+                        Checks.check(i == j || !beatsOrTies(offered.get(i), offered.get(j)),
+                                start + " -> " + end + ": two options with the same totals");
+                    }
+                }
+                options += offered.size();
+            }
+        }
+        System.out.println("ParetoRouter: " + NETWORKS + " networks, " + options + " options checked.");
+    }
+
+    /**
+     * @return {distance, fare, line changes} of every loopless route between two stations.
+     */
+    private static List<int[]> allRoutes(MetroGraph metro, int start, int end) {
+        List<int[]> routes = new ArrayList<>();
+        boolean[] onPath = new boolean[metro.graph().nodeCount()];
+        List<Integer> path = new ArrayList<>(List.of(start));
+        onPath[start] = true;
+        extend(metro, end, path, onPath, routes);
+        return routes;
+    }
+
+    private static void extend(MetroGraph metro, int end, List<Integer> path, boolean[] onPath, List<int[]> routes) {
+        int last = path.get(path.size() - 1);
+        if (last == end) {
+            routes.add(totals(metro, path));
+            return;
+        }
+        CsrGraph graph = metro.graph();
+        for (int arc = graph.offsets[last]; arc < graph.offsets[last + 1]; arc++) {
+            int next = graph.targets[arc];
+            if (!onPath[next]) {
+                onPath[next] = true;
+                path.add(next);
+                extend(metro, end, path, onPath, routes);
+                path.remove(path.size() - 1);
+                onPath[next] = false;
+            }
+        }
+    }
+
+    /**
+     * @return {distance, fare, line changes} of a route given as station ids.
+     */
+    private static int[] totals(MetroGraph metro, List<Integer> path) {
+        CsrGraph graph = metro.graph();
+        int distance = 0;
+        int rides = 0;
+        int line = -1;
+        for (int i = 0; i + 1 < path.size(); i++) {
+            int arc = graph.findArc(path.get(i), path.get(i + 1));
+            distance += graph.weights[arc];
+            // Each time the route gets on a line it isn't already riding is a new ride.
+            if (graph.lines[arc] != -1 && graph.lines[arc] != line) {
+                rides++;
+            }
+            line = graph.lines[arc];
+        }
+        int[] stations = path.stream().mapToInt(Integer::intValue).toArray();
+        return new int[] {distance, metro.routeFare(stations, stations.length), Math.max(0, rides - 1)};
+    }
+
+    /**
+     * @return true if route a is at least as good as route b on all three totals.
+     */
+    private static boolean beatsOrTies(int[] a, int[] b) {
+        return a[0] <= b[0] && a[1] <= b[1] && a[2] <= b[2];
+    }
+}
@@ -0,0 +1,72 @@
+package pune;
+
+import java.util.*;
+
+/**
+ * Checks StationIndex.withLine against StationIndex.of: after every random
+ * edit over 1,200 stations, the index updated in place must answer exactly
+ * like one built from scratch, and the index it was derived from (which
+ * shares chunks with it) must not have changed.
+ */
+final class StationIndexCheck {
+
+    private static final int NETWORKS = 40;
+    private static final int EDITS = 30;
+    private static final int STATIONS = 1200;
+
+    private StationIndexCheck() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(4);
+        for (int network = 0; network < NETWORKS; network++) {
+            Map<String, MetroLine> lines = new LinkedHashMap<>();
+            StationRegistry registry = new StationRegistry();
+            StationIndex index = StationIndex.of(registry, List.of());
+            for (int edit = 0; edit < EDITS; edit++) {
+                // Add a line or replace one of five; stations may repeat, as on a loop line.
+                List<String> stations = new ArrayList<>();
+                int length = 1 + random.nextInt(60);
+                for (int i = 0; i < length; i++) {
+                    stations.add(registry.canonical("s" + random.nextInt(STATIONS)));
+                }
+                MetroLine line = new MetroLine("l" + random.nextInt(5), stations, 1, new int[0][0]);
+
+                StationIndex previous = index;
+                Map<String, String> before = describe(previous);
+                lines.put(line.name(), line);
+                index = index.withLine(line);
+                Checks.check(describe(previous).equals(before), "withLine changed the index it started from");
+
+                StationIndex rebuilt = StationIndex.of(registry, lines.values());
+                Checks.check(describe(index).equals(describe(rebuilt)), "stops differ from a rebuilt index");
+                Checks.check(index.stationCount() == rebuilt.stationCount(), "station count differs from a rebuilt index");
+                int number = 1;
+                for (MetroLine metroLine : lines.values()) {
+                    for (String station : metroLine.stations()) {
+                        Checks.check(station.equals(index.stationAt(number)), "wrong station for number " + number);
+                        number++;
+                    }
+                }
+                Checks.check(index.stationAt(0) == null && index.stationAt(number) == null,
+                        "a station for a number outside the list");
+            }
+        }
+        System.out.println("StationIndex: " + NETWORKS * EDITS + " edits checked.");
+    }
+
+    /**
+     * @return Every station's stops written out as text, so two indexes can be compared.
+     */
+    private static Map<String, String> describe(StationIndex index) {
+        Map<String, String> stops = new HashMap<>();
+        for (int s = 0; s < STATIONS; s++) {
+            StringBuilder text = new StringBuilder();
+            for (StationIndex.Stop stop : index.stopsAt("s" + s)) {
+                text.append(stop.line).append('@').append(stop.position).append(' ');
+            }
+            stops.put("s" + s, text.toString());
+        }
+        return stops;
+    }
+}